@@ -28,6 +28,10 @@ android {
     packaging {
         resources.excludes.add("META-INF/*") // Prevents signing conflicts
     }
+    testOptions {
+        // Lets plain JVM tests run code that logs through android.util.Log
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -38,6 +42,8 @@ dependencies {
     androidTestImplementation(libs.espresso.core)
 
     // Tools for APK Editing
-    implementation("com.github.iyxan23:zipalign-java:1.2.2")
     implementation("com.github.MuntashirAkon:apksig-android:4.4.0")
+
+    // Shared HTTP transport (connection pooling, HTTP/2)
+    implementation("com.squareup.okhttp3:okhttp:4.12.0")
 }
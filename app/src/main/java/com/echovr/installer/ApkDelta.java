@@ -0,0 +1,423 @@
+package com.echovr.installer;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Rebuilds an APK variant from a published zip-aware delta and the APKs already on the device (earlier
+// downloads, the installed game). Deltas work on uncompressed entry contents, so they stay small however
+// each variant was compressed: every target entry is copied from a local entry with the same CRC and
+// size, bspatched against one, or carried whole. Base entries are found by content, not by name or APK.
+// The rebuilt archive is checked entry by entry against the target's CRCs and is unsigned; ApkPatcher
+// repacks and signs it like a download, so it never has to match the published file byte for byte.
+//
+// Format, big-endian as DataInputStream reads it:
+//   "EVRDELTA", int version (1), int entry count, then for each target entry in order:
+//   UTF name, long size, int crc32, byte op
+//     COPY     UTF base name, long base size, int base crc32
+//     LITERAL  long length, then that many bytes of raw deflate holding the entry
+//     BSDIFF   UTF base name, long base size, int base crc32, long length, then that many bytes of
+//              raw deflate holding a bsdiff patch from the base entry to this one
+//
+// The bsdiff patch is our own variant of ENDSLEY/BSDIFF43 and stock bspatch can't read it. It has the
+// same magic and the same 8-byte new size. The body is left uncompressed where BSDIFF43 bzip2s it,
+// because the payload's deflate already covers it. The body is the usual control triples (diff length,
+// extra length, old seek) as sign-and-magnitude little-endian longs, each followed by its diff and
+// extra bytes. A BSDIFF43 file from the stock tool becomes a valid body once its bzip2 stream is unpacked.
+final class ApkDelta {
+
+    // The device has nothing this delta can be applied to; the full download is the only way
+    static final class MissingBase extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        MissingBase(String message) {
+            super(message);
+        }
+    }
+
+    private static final String TAG = "ApkDelta";
+    private static final byte[] MAGIC = "EVRDELTA".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int OP_COPY = 0;
+    private static final int OP_LITERAL = 1;
+    private static final int OP_BSDIFF = 2;
+    private static final byte[] BSDIFF_MAGIC = "ENDSLEY/BSDIFF43".getBytes(StandardCharsets.US_ASCII);
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    // A local entry with known content: where its data starts in which archive
+    private static final class Base {
+        final FileChannel channel;
+        final ZipIndex.Entry entry;
+
+        Base(FileChannel channel, ZipIndex.Entry entry) {
+            this.channel = channel;
+            this.entry = entry;
+        }
+    }
+
+    private ApkDelta() {}
+
+    // Writes the target APK to out. Checks that every base entry is on the device before writing
+    // anything, and throws MissingBase if one isn't. scratchDir holds inflated base entries while they
+    // are patched against.
+    static void apply(File delta, List<File> baseApks, File out, File scratchDir, ApkPatcher.PatcherListener listener) throws IOException {
+        List<FileChannel> opened = new ArrayList<>();
+        try {
+            Map<String, Base> bases = indexBases(baseApks, opened);
+            checkBases(delta, bases);
+
+            byte[] buf = BufferPool.acquire(BUFFER_BYTES);
+            byte[] oldBuf = BufferPool.acquire(BUFFER_BYTES);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(delta), BUFFER_BYTES));
+                 ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(out), BUFFER_BYTES))) {
+                // Only a stepping stone: ApkPatcher recompresses everything when it repacks
+                zos.setLevel(Deflater.BEST_SPEED);
+                int count = readHeader(in);
+                long copied = 0;
+                long patched = 0;
+                long carried = 0;
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    long size = in.readLong();
+                    long crc = in.readInt() & 0xFFFFFFFFL;
+                    int op = in.readUnsignedByte();
+                    if (i % 50 == 0) listener.onProgress("Rebuilding APK (" + (i + 1) + "/" + count + " files)...");
+
+                    ZipEntry entry = new ZipEntry(name);
+                    // Native libraries are stored, as ApkPatcher expects to find and store them
+                    if (name.startsWith("lib/") && name.endsWith(".so")) {
+                        entry.setMethod(ZipEntry.STORED);
+                        entry.setSize(size);
+                        entry.setCompressedSize(size);
+                        entry.setCrc(crc);
+                    }
+                    zos.putNextEntry(entry);
+                    CRC32 actual = new CRC32();
+                    OutputStream target = new CrcOutputStream(zos, actual);
+                    if (op == OP_COPY) {
+                        Base base = bases.get(readBaseKey(in));
+                        try (InputStream content = openBase(base)) {
+                            copy(content, target, buf);
+                        }
+                        copied += size;
+                    } else if (op == OP_LITERAL) {
+                        try (InputStream content = payload(in, in.readLong())) {
+                            copy(content, target, buf);
+                        }
+                        carried += size;
+                    } else if (op == OP_BSDIFF) {
+                        Base base = bases.get(readBaseKey(in));
+                        try (InputStream patch = payload(in, in.readLong())) {
+                            bspatch(base, scratchDir, patch, target, size, buf, oldBuf);
+                        }
+                        patched += size;
+                    } else {
+                        throw new IOException("Unknown delta op " + op + " for " + name);
+                    }
+                    if (actual.getValue() != crc) throw new IOException("Rebuilt " + name + " does not match the target");
+                    zos.closeEntry();
+                }
+                Log.d(TAG, "Rebuilt " + count + " entries: " + copied + " bytes copied, " + patched + " patched, "
+                        + carried + " carried in the delta");
+            } finally {
+                BufferPool.release(buf);
+                BufferPool.release(oldBuf);
+            }
+        } catch (IOException e) {
+            out.delete();
+            throw e;
+        } finally {
+            for (FileChannel channel : opened) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // Archives that can't be read (a partial download, a file that isn't a zip) are passed over.
+    private static Map<String, Base> indexBases(List<File> apks, List<FileChannel> opened) {
+        Map<String, Base> bases = new HashMap<>();
+        for (File apk : apks) {
+            try {
+                FileChannel channel = new FileInputStream(apk).getChannel();
+                opened.add(channel);
+                for (ZipIndex.Entry entry : ZipIndex.read(channel)) {
+                    if (entry.isDirectory()) continue;
+                    if (entry.method != ZipIndex.METHOD_STORED && entry.method != ZipIndex.METHOD_DEFLATED) continue;
+                    String key = key(entry.size, entry.crc);
+                    if (!bases.containsKey(key)) bases.put(key, new Base(channel, entry));
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Not using " + apk.getName() + " as a base: " + e.getMessage());
+            }
+        }
+        return bases;
+    }
+
+    // First pass over the delta, skipping every payload, so a missing base costs no rebuild work.
+    private static void checkBases(File delta, Map<String, Base> bases) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(delta), BUFFER_BYTES))) {
+            int count = readHeader(in);
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                in.readLong();
+                in.readInt();
+                int op = in.readUnsignedByte();
+                if (op == OP_COPY || op == OP_BSDIFF) {
+                    String baseName = in.readUTF();
+                    String key = key(in.readLong(), in.readInt() & 0xFFFFFFFFL);
+                    if (!bases.containsKey(key)) throw new MissingBase("No local copy of " + baseName + " for " + name);
+                }
+                if (op == OP_LITERAL || op == OP_BSDIFF) skipFully(in, in.readLong());
+            }
+        }
+    }
+
+    private static int readHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not an APK delta");
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported delta version " + version);
+        return in.readInt();
+    }
+
+    private static String readBaseKey(DataInputStream in) throws IOException {
+        in.readUTF();
+        return key(in.readLong(), in.readInt() & 0xFFFFFFFFL);
+    }
+
+    private static String key(long size, long crc) {
+        return size + ":" + crc;
+    }
+
+    // Not closed by the caller's stream: the archive channel is shared by every entry in it.
+    private static InputStream openBase(Base base) throws IOException {
+        long offset = base.entry.dataOffset(base.channel);
+        InputStream raw = new Bounded(Channels.newInputStream(base.channel.position(offset)), base.entry.compressedSize);
+        if (base.entry.method == ZipIndex.METHOD_STORED) return raw;
+        return new InflaterInputStream(raw, new Inflater(true), BUFFER_BYTES) {
+            @Override
+            public void close() throws IOException {
+                inf.end();
+            }
+        };
+    }
+
+    // The next length bytes of the delta as a raw deflate stream. Closing it leaves the delta positioned
+    // right after the payload, however much of the stream was read.
+    private static InputStream payload(DataInputStream in, long length) {
+        Bounded raw = new Bounded(in, length);
+        return new InflaterInputStream(raw, new Inflater(true), BUFFER_BYTES) {
+            @Override
+            public void close() throws IOException {
+                inf.end();
+                raw.drain();
+            }
+        };
+    }
+
+    // bspatch over a streamed patch: the new entry is written front to back while the old one is read
+    // wherever the control words point. Stored bases are read in place; deflated ones are inflated to a
+    // scratch file first so they can be read out of order.
+    private static void bspatch(Base base, File scratchDir, InputStream patch, OutputStream out, long newSize,
+                                byte[] buf, byte[] oldBuf) throws IOException {
+        byte[] magic = new byte[BSDIFF_MAGIC.length];
+        readFully(patch, magic, magic.length);
+        if (!Arrays.equals(magic, BSDIFF_MAGIC)) throw new IOException("Bad patch for " + base.entry.name);
+        if (offtin(patch, buf) != newSize) throw new IOException("Patch for " + base.entry.name + " has the wrong size");
+
+        File scratch = null;
+        FileChannel old = base.channel;
+        long oldOffset;
+        try {
+            if (base.entry.method == ZipIndex.METHOD_STORED) {
+                oldOffset = base.entry.dataOffset(base.channel);
+            } else {
+                scratch = File.createTempFile("delta", ".base", scratchDir);
+                try (InputStream content = openBase(base);
+                     OutputStream copy = new FileOutputStream(scratch)) {
+                    copy(content, copy, buf);
+                }
+                old = new FileInputStream(scratch).getChannel();
+                oldOffset = 0;
+            }
+            long oldSize = base.entry.size;
+
+            long newPos = 0;
+            long oldPos = 0;
+            while (newPos < newSize) {
+                long diffLen = offtin(patch, buf);
+                long extraLen = offtin(patch, buf);
+                long seek = offtin(patch, buf);
+                if (diffLen < 0 || extraLen < 0 || newPos + diffLen + extraLen > newSize) {
+                    throw new IOException("Corrupt patch for " + base.entry.name);
+                }
+                // Diff bytes are added to the old bytes; old bytes outside the entry count as zero
+                for (long left = diffLen; left > 0; ) {
+                    int n = (int) Math.min(buf.length, left);
+                    readFully(patch, buf, n);
+                    readOld(old, oldOffset, oldSize, oldPos, oldBuf, n);
+                    for (int i = 0; i < n; i++) buf[i] += oldBuf[i];
+                    out.write(buf, 0, n);
+                    oldPos += n;
+                    newPos += n;
+                    left -= n;
+                }
+                for (long left = extraLen; left > 0; ) {
+                    int n = (int) Math.min(buf.length, left);
+                    readFully(patch, buf, n);
+                    out.write(buf, 0, n);
+                    newPos += n;
+                    left -= n;
+                }
+                oldPos += seek;
+            }
+        } finally {
+            if (scratch != null) {
+                old.close();
+                scratch.delete();
+            }
+        }
+    }
+
+    private static void readOld(FileChannel old, long offset, long size, long pos, byte[] dst, int n) throws IOException {
+        Arrays.fill(dst, 0, n, (byte) 0);
+        long from = Math.max(pos, 0);
+        long to = Math.min(pos + n, size);
+        if (from >= to) return;
+        // The view's position is always the index into dst, which is relative to pos
+        ByteBuffer view = ByteBuffer.wrap(dst, (int) (from - pos), (int) (to - from));
+        while (view.hasRemaining()) {
+            if (old.read(view, offset + pos + view.position()) < 0) throw new EOFException("Base entry ends early");
+        }
+    }
+
+    // bsdiff's sign-and-magnitude little-endian 64-bit integer.
+    private static long offtin(InputStream in, byte[] scratch) throws IOException {
+        readFully(in, scratch, 8);
+        long y = scratch[7] & 0x7F;
+        for (int i = 6; i >= 0; i--) y = (y << 8) | (scratch[i] & 0xFF);
+        return (scratch[7] & 0x80) != 0 ? -y : y;
+    }
+
+    private static void readFully(InputStream in, byte[] buf, int n) throws IOException {
+        for (int off = 0; off < n; ) {
+            int len = in.read(buf, off, n - off);
+            if (len < 0) throw new EOFException("Delta ends early");
+            off += len;
+        }
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException("Delta ends early");
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, byte[] buf) throws IOException {
+        int len;
+        while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
+    }
+
+    // At most limit bytes of the underlying stream, which is left open.
+    private static final class Bounded extends FilterInputStream {
+        private long left;
+
+        Bounded(InputStream in, long limit) {
+            super(in);
+            this.left = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (left <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) left--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (left <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, left));
+            if (n > 0) left -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, left));
+            if (skipped > 0) left -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), left);
+        }
+
+        // Moves the underlying stream to the end of the bounded part.
+        void drain() throws IOException {
+            skipFully(in, left);
+            left = 0;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    // Feeds every byte written to a CRC on the way through, leaving the target open.
+    private static final class CrcOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final CRC32 crc;
+
+        CrcOutputStream(OutputStream out, CRC32 crc) {
+            this.out = out;
+            this.crc = crc;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+        }
+    }
+}
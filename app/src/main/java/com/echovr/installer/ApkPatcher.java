@@ -5,25 +5,28 @@ import android.os.Environment;
 import android.util.Log;
 
 import com.android.apksig.ApkSigner;
-import com.iyxan23.zipalignjava.ZipAlign;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -35,172 +38,111 @@ public class ApkPatcher {
     private static final String CERT_BASE64 = "MIIDeDCCAmCgAwIBAgIJAJA5+HY+OtK3MA0GCSqGSIb3DQEBCwUAMGkxEDAOBgNVBAYTB1Vua25vd24xEDAOBgNVBAgTB1Vua25vd24xEDAOBgNVBAcTB1Vua25vd24xEDAOBgNVBAoTB1Vua25vd24xEDAOBgNVBAsTB1Vua25vd24xDTALBgNVBAMTBGVjaG8wIBcNMjYwMjA3MDcwMzQwWhgPMjA1MzA2MjUwNzAzNDBaMGkxEDAOBgNVBAYTB1Vua25vd24xEDAOBgNVBAgTB1Vua25vd24xEDAOBgNVBAcTB1Vua25vd24xEDAOBgNVBAoTB1Vua25vd24xEDAOBgNVBAsTB1Vua25vd24xDTALBgNVBAMTBGVjaG8wggEiMA0GCSqGSIb3DQEBAQUAA4IBDwAwggEKAoIBAQCYYWC2NgyWazIWzNsZ2AhC4vfhWpdZAWeaPWp+lxftXHEz6Y6dqOJi5my4COXTxzzPqZ1YlLszx1yd3e08OQ/pErKJOcwJR/jBGbNVl/1mHZt29qV7xQy+dzpRZPBXjIP7GYvPMUD3TsKa8QSn3qEr1WDXLl8ykkYEwL8d8/h8tYUqj/x7d1/ipCj9xWGlPm9GmWnqFmEbF+MWxwM2+fqIGftsh8qGlPaZbBjowKj4z1YgYosgfwB/S1MUGHym78L/OMcqKzodshwODfJtAcLfgU4UU5i2UlZumH67/DFA3ez1p2aHZw8+f83x5YK8viRCJF9kagkfmAvlJYznDdqbAgMBAAGjITAfMB0GA1UdDgQWBBR/2Gfa2sZO4vVBkWGIvUNjeZQe7jANBgkqhkiG9w0BAQsFAAOCAQEAb1/yW3REt4b1qt8JdgWa1QKcjE0eh9A4VgogJv3AbKv1m/ssh9WgWS8QHVTeEZV/O+zi+Wyh040MoyRgmIjQWMZMIaqPqztqYqbwS6YxHj8ccys+XbVmpFPpAuR+mrvXLWB3wMRV61yWJMlqiAjeT0n/oKtWila/LsvJr2oP3tToyleVNmARFNFsuId/qz8lC7IeC71p+DTYX+VNWvKDONCNEZ3eu1Ky0Sq3KjJIJwxN6j6sVmmGmbBwhJgs4sLyX2C1dnAT5fKwDKRl+/a+jzjV8ZyTAzyKXecyIq1ZUFfoECrlBnXYoQd2jR2kKiiSgCCraYwU3XnMXbO+XzPsug==";
     // ----------------------------------------------
 
-    private static final String PATCH_LIB_URL = "https://github.com/heisthecat31/EchoVR-Installer/releases/download/Installer/libr15.so";
-    private static final String PATCH_CONFIG_URL = "https://github.com/heisthecat31/EchoVR-Installer/releases/download/Installer/gamesettings_config.json";
-
-    private static final String TARGET_LIB_PATH = "lib/arm64-v8a/libr15.so";
-    private static final String TARGET_CONFIG_PATH = "assets/sourcedb/rad15/json/r14/config/gamesettings_config.json";
+    // Native libraries are stored on page boundaries so the loader can map them from the APK. 16 KB
+    // covers both page sizes Android ships with.
+    private static final int LIBRARY_ALIGNMENT = 16384;
+    private static final int STORED_ALIGNMENT = 4;
+    // zipalign's alignment extra field; apksig keeps the alignment it names when it re-lays the APK
+    private static final int ALIGNMENT_EXTRA_ID = 0xD935;
+    private static final int PATCH_WINDOW_BYTES = 1024 * 1024;
+    private static final String SIGNER_NAME = "EchoPatcher";
 
     public interface PatcherListener {
         void onProgress(String status);
     }
 
-    public static File patchApk(Context context, File inputApk, boolean applyBetterGraphics, PatcherListener listener) throws Exception {
-        File cacheDir = context.getExternalCacheDir();
-        File libFile = new File(cacheDir, "libr15.so");
-        File configFile = new File(cacheDir, "gamesettings_config.json");
-        File tempUnsigned = new File(cacheDir, "temp_modded.apk");
-        File tempAligned = new File(cacheDir, "temp_aligned.apk");
-        
-        String outName = applyBetterGraphics ? "EchoVR_BetterGraphics.apk" : "EchoVR_Patched.apk";
-        File finalApk = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), outName);
+    // Repacks inputApk with patches into alignedOut, which is left in place so an interrupted install
+    // can go straight to signing. betterGraphics is null for a plain path patch; otherwise its files
+    // replace the entries the patch set maps them to before the byte rules are applied. Stored entries
+    // are aligned as they are written, so there is no separate zipalign pass over the whole APK.
+    public static void patchAndAlign(Context context, File inputApk, PatchSet patchSet, PatchAssetCache.Assets betterGraphics,
+                                     File alignedOut, PatcherListener listener) throws IOException {
+        File workFile = new File(context.getExternalCacheDir(), "patch_work.bin");
 
         try {
-            if (applyBetterGraphics) {
-                // 1. Download Patches
-                listener.onProgress("Downloading Better Graphics files...");
-                downloadFile(PATCH_LIB_URL, libFile);
-                downloadFile(PATCH_CONFIG_URL, configFile);
-            } else {
-                // 1. Extract existing libr15.so from the APK
-                listener.onProgress("Extracting engine library...");
-                extractFileFromZip(inputApk, TARGET_LIB_PATH, libFile);
-            }
-
-            // 2. Binary Patch libr15.so to fix the Android/data path
-            listener.onProgress("Patching data paths...");
-            patchLibr15Paths(libFile);
-
-            // 3. Replace Files in APK
-            listener.onProgress("Repacking APK...");
-            replaceFilesInZip(inputApk, tempUnsigned, libFile, applyBetterGraphics ? configFile : null);
-
-            // 4. Zipalign
-            listener.onProgress("Aligning APK...");
-            if (tempAligned.exists()) tempAligned.delete();
-            try (RandomAccessFile raf = new RandomAccessFile(tempUnsigned, "r");
-                 FileOutputStream fos = new FileOutputStream(tempAligned)) {
-                ZipAlign.alignZip(raf, fos);
-            }
-
-            // 5. Sign
-            listener.onProgress("Signing APK...");
-            signApk(context, tempAligned, finalApk);
-
-            listener.onProgress("Done! Saved to Downloads.");
-            return finalApk;
-
+            // Replace and patch entries in a single, aligning repack pass
+            listener.onProgress("Patching and repacking APK (" + patchSet.id + " v" + patchSet.version + ")...");
+            if (alignedOut.exists()) alignedOut.delete();
+            repackWithPatches(inputApk, alignedOut, workFile, patchSet, betterGraphics, listener);
         } finally {
             // Cleanup
-            if (libFile.exists()) libFile.delete();
-            if (configFile.exists()) configFile.delete();
-            if (tempUnsigned.exists()) tempUnsigned.delete();
-            if (tempAligned.exists()) tempAligned.delete();
+            if (workFile.exists()) workFile.delete();
         }
     }
 
-    private static void patchLibr15Paths(File libFile) throws IOException {
-        byte[] data = new byte[(int) libFile.length()];
-        try (FileInputStream fis = new FileInputStream(libFile)) {
-            fis.read(data);
-        }
-
-        byte[][] oldStrings = {
-                "/sdcard/readyatdawn/files/_data/5932408047/rad15/android/manifests".getBytes(),
-                "/sdcard/readyatdawn/files/_data/5932408047/rad15/android/packages".getBytes(),
-                "/sdcard/readyatdawn/files".getBytes(),
-                "android.permission.RECORD_AUDIO".getBytes(),
-                "android.permission.READ_EXTERNAL_STORAGE".getBytes(),
-                "android.permission.WRITE_EXTERNAL_STORAGE".getBytes()
-        };
-        byte[][] newStrings = {
-                "/sdcard/Android/media/com.readyatdawn.r15/files/_data/5932408047/rad15/android/manifests".getBytes(),
-                "/sdcard/Android/media/com.readyatdawn.r15/files/_data/5932408047/rad15/android/packages".getBytes(),
-                "/sdcard/Android/media/com.readyatdawn.r15/files".getBytes(),
-                "android.permission.INTERNET".getBytes(),
-                "android.permission.INTERNET".getBytes(),
-                "android.permission.INTERNET".getBytes()
-        };
-
-        for (int s = 0; s < oldStrings.length; s++) {
-            byte[] oldStr = oldStrings[s];
-            byte[] newStr = newStrings[s];
-
-            int idx = indexOf(data, oldStr, 0);
-            while (idx != -1) {
-                int nullsFound = 0;
-                for (int i = idx + oldStr.length; i < data.length; i++) {
-                    if (data[i] == 0) nullsFound++;
-                    else break;
-                }
-                
-                int paddingNeeded = newStr.length - oldStr.length;
-                if (nullsFound >= paddingNeeded) {
-                    int totalSpace = oldStr.length + nullsFound;
-                    for (int i = 0; i < totalSpace; i++) {
-                        if (i < newStr.length) {
-                            data[idx + i] = newStr[i];
-                        } else {
-                            data[idx + i] = 0;
-                        }
-                    }
-                }
-                idx = indexOf(data, oldStr, idx + newStr.length);
-            }
-        }
+    // Signs an APK from patchAndAlign into Downloads, for when it can't be streamed into an install
+    // session.
+    public static File signPatched(Context context, File alignedApk, boolean betterGraphics, PatcherListener listener) throws Exception {
+        String outName = betterGraphics ? "EchoVR_BetterGraphics.apk" : "EchoVR_Patched.apk";
+        File finalApk = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), outName);
 
-        try (FileOutputStream fos = new FileOutputStream(libFile)) {
-            fos.write(data);
-        }
-    }
+        listener.onProgress("Signing APK...");
+        signApk(context, alignedApk, finalApk);
 
-    private static int indexOf(byte[] data, byte[] pattern, int start) {
-        for (int i = start; i <= data.length - pattern.length; i++) {
-            boolean match = true;
-            for (int j = 0; j < pattern.length; j++) {
-                if (data[i + j] != pattern[j]) {
-                    match = false;
-                    break;
-                }
-            }
-            if (match) return i;
-        }
-        return -1;
+        listener.onProgress("Done! Saved to Downloads.");
+        return finalApk;
     }
 
-    private static void extractFileFromZip(File zipFile, String targetPath, File destFile) throws IOException {
-        try (ZipFile zip = new ZipFile(zipFile)) {
-            ZipEntry entry = zip.getEntry(targetPath);
-            if (entry != null) {
-                try (InputStream is = zip.getInputStream(entry);
-                     FileOutputStream fos = new FileOutputStream(destFile)) {
-                    copyStream(is, fos);
-                }
-            } else {
-                throw new IOException("File not found in APK: " + targetPath);
-            }
-        }
+    // Signs an aligned APK for streaming: the signature is worked out from alignedApk, and the signed
+    // APK is only produced when the result is written somewhere, such as an install session.
+    public static StreamingApkSigner.SignedApk prepareSigned(File alignedApk, PatcherListener listener) throws Exception {
+        listener.onProgress("Signing APK...");
+        return StreamingApkSigner.sign(alignedApk, SIGNER_NAME, signingKey(), signingCertificate());
     }
 
-    private static void replaceFilesInZip(File srcZip, File destZip, File newLib, File newConfig) throws IOException {
+    private static void repackWithPatches(File srcZip, File destZip, File workFile, PatchSet patchSet,
+                                          PatchAssetCache.Assets betterGraphics, PatcherListener listener) throws IOException {
         try (ZipFile zipFile = new ZipFile(srcZip);
-             ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(destZip)))) {
+             CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(destZip)));
+             ZipOutputStream zos = new ZipOutputStream(out)) {
 
             Enumeration<? extends ZipEntry> entries = zipFile.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
                 String name = entry.getName();
-
-                if (name.equals(TARGET_LIB_PATH)) {
-                    writeEntry(zos, name, newLib);
+                // The original signature can't survive patching, and signing replaces it anyway
+                if (isJarSignatureFile(name)) continue;
+
+                PatchSet.Entry patch = patchSet.entry(name);
+                File replacement = (patch != null && patch.asset != null && betterGraphics != null)
+                        ? betterGraphics.get(patch.asset) : null;
+
+                if (patch != null && patch.hasRules()) {
+                    listener.onProgress("Patching " + name.substring(name.lastIndexOf('/') + 1) + "...");
+                    if (replacement != null) {
+                        copyFile(replacement, workFile);
+                    } else {
+                        try (InputStream is = zipFile.getInputStream(entry);
+                             OutputStream os = new FileOutputStream(workFile)) {
+                            copyStream(is, os);
+                        }
+                    }
+                    applyPatch(workFile, patch);
+                    writeEntry(zos, out, name, workFile);
                     continue;
                 }
-                if (newConfig != null && name.equals(TARGET_CONFIG_PATH)) {
-                    writeEntry(zos, name, newConfig);
+                if (replacement != null) {
+                    writeEntry(zos, out, name, replacement);
                     continue;
                 }
 
-                zos.putNextEntry(new ZipEntry(name));
+                if (name.equals("AndroidManifest.xml")) {
+                    byte[] manifest = readEntry(zipFile, entry);
+                    boolean mapped = BinaryManifest.disableNativeLibExtraction(manifest);
+                    Log.d("ApkPatcher", mapped ? "Native libraries will load from the APK" : "Manifest keeps native library extraction");
+                    zos.putNextEntry(new ZipEntry(name));
+                    zos.write(manifest);
+                    zos.closeEntry();
+                    continue;
+                }
+
+                // Libraries and entries that were already stored keep their bytes uncompressed; the
+                // central directory has their size and CRC, so no extra pass is needed
+                if (isNativeLibrary(name) || entry.getMethod() == ZipEntry.STORED) {
+                    putStoredEntry(zos, out, name, entry.getSize(), entry.getCrc());
+                } else {
+                    zos.putNextEntry(new ZipEntry(name));
+                }
                 try (InputStream is = zipFile.getInputStream(entry)) {
                     copyStream(is, zos);
                 }
@@ -209,25 +151,179 @@ public class ApkPatcher {
         }
     }
 
-    private static void writeEntry(ZipOutputStream zos, String name, File file) throws IOException {
-        ZipEntry entry = new ZipEntry(name);
-        zos.putNextEntry(entry);
+    // Applies one entry's rules in place. ELF files are only scanned in the sections the entry allows;
+    // anything else is scanned whole.
+    private static void applyPatch(File file, PatchSet.Entry patch) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            List<long[]> regions = new ArrayList<>();
+            List<ElfSections.Section> sections = ElfSections.read(raf);
+            if (sections != null) {
+                for (ElfSections.Section section : sections) {
+                    if (patch.scansSection(section.name)) regions.add(new long[]{section.offset, section.size});
+                }
+                if (regions.isEmpty()) Log.w("ApkPatcher", "No matching ELF sections in " + patch.path + ", scanning whole file");
+            }
+            if (regions.isEmpty()) regions.add(new long[]{0, raf.length()});
+
+            int[] counts = new int[patch.ruleCount()];
+            int overlap = patch.maxSpan();
+            // The overlap comes out of the window rather than on top of it, so the window stays a pooled size
+            byte[] window = BufferPool.acquire(Math.max(PATCH_WINDOW_BYTES, 2 * overlap));
+            long scanned = 0;
+            try {
+                for (long[] region : regions) {
+                    scanned += region[1];
+                    scanRegion(raf, region[0], region[0] + region[1], patch, window, overlap, counts);
+                }
+            } finally {
+                BufferPool.release(window);
+            }
+            Log.d("ApkPatcher", "Scanned " + scanned + " of " + raf.length() + " bytes of " + patch.path
+                    + ", matches " + Arrays.toString(counts));
+            patch.verify(counts);
+        }
+    }
+
+    // Streams a region through a fixed window. The last overlap bytes of each window are carried into
+    // the next so a match straddling the boundary is seen whole, and only windows that changed are
+    // written back. Memory stays at the window size however large the library is.
+    private static void scanRegion(RandomAccessFile raf, long start, long end, PatchSet.Entry patch,
+                                   byte[] window, int overlap, int[] counts) throws IOException {
+        long pos = start;
+        int carried = 0;
+        int resume = 0;
+        while (true) {
+            int read = (int) Math.min(window.length - carried, end - pos - carried);
+            raf.seek(pos + carried);
+            raf.readFully(window, carried, read);
+            int length = carried + read;
+            boolean last = pos + length >= end;
+            int limit = last ? length : length - overlap;
+
+            int before = 0;
+            for (int c : counts) before += c;
+            resume = patch.apply(window, resume, limit, length, counts);
+            int after = 0;
+            for (int c : counts) after += c;
+            if (after != before) {
+                raf.seek(pos);
+                raf.write(window, 0, length);
+            }
+            if (last) return;
+
+            System.arraycopy(window, limit, window, 0, length - limit);
+            pos += limit;
+            carried = length - limit;
+            resume -= limit;
+        }
+    }
+
+    private static void writeEntry(ZipOutputStream zos, CountingOutputStream out, String name, File file) throws IOException {
+        if (isNativeLibrary(name)) {
+            putStoredEntry(zos, out, name, file.length(), crcOf(file));
+        } else {
+            zos.putNextEntry(new ZipEntry(name));
+        }
         try (FileInputStream fis = new FileInputStream(file)) {
             copyStream(fis, zos);
         }
         zos.closeEntry();
     }
 
-    private static void signApk(Context context, File input, File output) throws Exception {
+    private static boolean isJarSignatureFile(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', 9) >= 0) return false;
+        String file = name.substring(9).toUpperCase(Locale.ROOT);
+        return file.equals("MANIFEST.MF") || file.endsWith(".SF") || file.endsWith(".RSA")
+                || file.endsWith(".DSA") || file.endsWith(".EC") || file.startsWith("SIG-");
+    }
+
+    private static boolean isNativeLibrary(String name) {
+        return name.startsWith("lib/") && name.endsWith(".so");
+    }
+
+    // Starts a STORED entry whose data begins on a multiple of its alignment, padding the local header
+    // with an alignment extra field the way zipalign -p does. ZipOutputStream writes names as UTF-8
+    // and adds no extra fields of its own for entries like these.
+    private static void putStoredEntry(ZipOutputStream zos, CountingOutputStream out, String name, long size, long crc) throws IOException {
+        int alignment = isNativeLibrary(name) ? LIBRARY_ALIGNMENT : STORED_ALIGNMENT;
+        // ZipOutputStream puts a 20 byte Zip64 field in front of ours for entries of 4 GB and up
+        int zip64 = size >= 0xFFFFFFFFL ? 20 : 0;
+        long dataStart = out.count + 30 + name.getBytes(StandardCharsets.UTF_8).length + zip64 + 6;
+        int padding = (int) ((alignment - dataStart % alignment) % alignment);
+
+        byte[] extra = new byte[6 + padding];
+        extra[0] = (byte) ALIGNMENT_EXTRA_ID;
+        extra[1] = (byte) (ALIGNMENT_EXTRA_ID >>> 8);
+        extra[2] = (byte) (2 + padding);
+        extra[3] = (byte) ((2 + padding) >>> 8);
+        extra[4] = (byte) alignment;
+        extra[5] = (byte) (alignment >>> 8);
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc);
+        entry.setExtra(extra);
+        zos.putNextEntry(entry);
+    }
+
+    private static long crcOf(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = BufferPool.acquire(IoTuner.settings().copyBufferBytes);
+        try (InputStream in = new FileInputStream(file)) {
+            int len;
+            while ((len = in.read(buf)) > 0) crc.update(buf, 0, len);
+        } finally {
+            BufferPool.release(buf);
+        }
+        return crc.getValue();
+    }
+
+    private static byte[] readEntry(ZipFile zipFile, ZipEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream is = zipFile.getInputStream(entry)) {
+            copyStream(is, bytes);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Tracks the archive offset so stored entries can be aligned as they are written.
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static PrivateKey signingKey() throws Exception {
         byte[] keyBytes = android.util.Base64.decode(PRIVATE_KEY_BASE64, android.util.Base64.DEFAULT);
         java.security.KeyFactory kf = java.security.KeyFactory.getInstance("RSA");
-        PrivateKey key = kf.generatePrivate(new java.security.spec.PKCS8EncodedKeySpec(keyBytes));
+        return kf.generatePrivate(new java.security.spec.PKCS8EncodedKeySpec(keyBytes));
+    }
 
+    private static X509Certificate signingCertificate() throws Exception {
         byte[] certBytes = android.util.Base64.decode(CERT_BASE64, android.util.Base64.DEFAULT);
         java.security.cert.CertificateFactory cf = java.security.cert.CertificateFactory.getInstance("X.509");
-        X509Certificate cert = (X509Certificate) cf.generateCertificate(new java.io.ByteArrayInputStream(certBytes));
+        return (X509Certificate) cf.generateCertificate(new java.io.ByteArrayInputStream(certBytes));
+    }
 
-        ApkSigner.SignerConfig config = new ApkSigner.SignerConfig.Builder("EchoPatcher", key, Collections.singletonList(cert)).build();
+    private static void signApk(Context context, File input, File output) throws Exception {
+        ApkSigner.SignerConfig config = new ApkSigner.SignerConfig.Builder(SIGNER_NAME, signingKey(),
+                Collections.singletonList(signingCertificate())).build();
 
         new ApkSigner.Builder(Collections.singletonList(config))
                 .setInputApk(input)
@@ -238,19 +334,20 @@ public class ApkPatcher {
                 .sign();
     }
 
-    private static void downloadFile(String urlStr, File dest) throws IOException {
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.connect();
-        try (InputStream in = new BufferedInputStream(conn.getInputStream());
+    private static void copyFile(File src, File dest) throws IOException {
+        try (InputStream in = new FileInputStream(src);
              OutputStream out = new FileOutputStream(dest)) {
             copyStream(in, out);
         }
     }
 
     private static void copyStream(InputStream in, OutputStream out) throws IOException {
-        byte[] buf = new byte[32768];
-        int len;
-        while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
+        byte[] buf = BufferPool.acquire(IoTuner.settings().copyBufferBytes);
+        try {
+            int len;
+            while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
+        } finally {
+            BufferPool.release(buf);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package com.echovr.installer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// In-place edits to a compiled (binary XML) AndroidManifest.xml. Only values are changed, never sizes,
+// so no chunk or string pool has to be rewritten.
+final class BinaryManifest {
+
+    private static final int CHUNK_XML = 0x0003;
+    private static final int CHUNK_RESOURCE_MAP = 0x0180;
+    private static final int CHUNK_START_ELEMENT = 0x0102;
+    private static final int TYPE_INT_BOOLEAN = 0x12;
+    private static final int ATTR_EXTRACT_NATIVE_LIBS = 0x010104ea;
+
+    private BinaryManifest() {}
+
+    // Makes android:extractNativeLibs false so libraries are mapped straight from the APK, and returns
+    // whether it now is. False if the attribute is absent or not a literal boolean: the platform then
+    // extracts them as before, which stored libraries are just as valid for.
+    static boolean disableNativeLibExtraction(byte[] axml) {
+        ByteBuffer b = ByteBuffer.wrap(axml).order(ByteOrder.LITTLE_ENDIAN);
+        if (axml.length < 8 || (b.getShort(0) & 0xFFFF) != CHUNK_XML) return false;
+
+        int[] resourceIds = null;
+        int pos = b.getShort(2) & 0xFFFF;
+        while (pos + 8 <= axml.length) {
+            int type = b.getShort(pos) & 0xFFFF;
+            int headerSize = b.getShort(pos + 2) & 0xFFFF;
+            int size = b.getInt(pos + 4);
+            if (size < 8 || pos + size > axml.length) return false;
+
+            if (type == CHUNK_RESOURCE_MAP) {
+                resourceIds = new int[(size - headerSize) / 4];
+                for (int i = 0; i < resourceIds.length; i++) resourceIds[i] = b.getInt(pos + headerSize + i * 4);
+            } else if (type == CHUNK_START_ELEMENT && resourceIds != null) {
+                int ext = pos + headerSize;
+                int attrStart = b.getShort(ext + 8) & 0xFFFF;
+                int attrSize = b.getShort(ext + 10) & 0xFFFF;
+                int attrCount = b.getShort(ext + 12) & 0xFFFF;
+                for (int i = 0; i < attrCount; i++) {
+                    int attr = ext + attrStart + i * attrSize;
+                    int name = b.getInt(attr + 4);
+                    if (name < 0 || name >= resourceIds.length || resourceIds[name] != ATTR_EXTRACT_NATIVE_LIBS) continue;
+                    if ((b.get(attr + 15) & 0xFF) != TYPE_INT_BOOLEAN) return false;
+                    b.putInt(attr + 8, -1);
+                    b.putInt(attr + 16, 0);
+                    return true;
+                }
+            }
+            pos += size;
+        }
+        return false;
+    }
+}
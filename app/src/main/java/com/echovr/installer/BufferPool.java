@@ -0,0 +1,98 @@
+package com.echovr.installer;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Process-wide pool of I/O buffers, so the download, extract, patch and sign loops reuse the same few
+// arrays instead of allocating a fresh one per file. Sizes are rounded up to a power of two between
+// 4 KB and 1 MB; anything larger is allocated plainly and never kept. A buffer must be released
+// exactly once and not touched afterwards. What the pool holds is capped and dropped on memory pressure.
+final class BufferPool {
+
+    static final class Stats {
+        final long hits;
+        final long misses;
+        final long retainedBytes;
+        final long peakRetainedBytes;
+
+        Stats(long hits, long misses, long retainedBytes, long peakRetainedBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.retainedBytes = retainedBytes;
+            this.peakRetainedBytes = peakRetainedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d hits, %d misses, %d KB held, peak %d KB",
+                    hits, misses, retainedBytes / 1024, peakRetainedBytes / 1024);
+        }
+    }
+
+    private static final String TAG = "BufferPool";
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 20;
+    // Enough for a full download pipe at its largest plus the extraction workers' buffers
+    private static final long MAX_RETAINED_BYTES = 24L * 1024 * 1024;
+
+    // One free list per size, smallest first
+    private static final List<ArrayDeque<byte[]>> FREE = new ArrayList<>();
+    private static long hits;
+    private static long misses;
+    private static long retainedBytes;
+    private static long peakRetainedBytes;
+
+    static {
+        for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) FREE.add(new ArrayDeque<>());
+    }
+
+    private BufferPool() {}
+
+    // The returned array may be longer than asked for.
+    static synchronized byte[] acquire(int minBytes) {
+        int shift = shiftFor(minBytes);
+        if (shift > MAX_SHIFT) {
+            misses++;
+            return new byte[minBytes];
+        }
+        byte[] buf = FREE.get(shift - MIN_SHIFT).pollFirst();
+        if (buf != null) {
+            hits++;
+            retainedBytes -= buf.length;
+            return buf;
+        }
+        misses++;
+        return new byte[1 << shift];
+    }
+
+    static synchronized void release(byte[] buf) {
+        if (buf == null) return;
+        int shift = shiftFor(buf.length);
+        // Oversized and foreign arrays are left to the GC, as is anything past the cap
+        if (shift > MAX_SHIFT || buf.length != 1 << shift) return;
+        if (retainedBytes + buf.length > MAX_RETAINED_BYTES) return;
+        FREE.get(shift - MIN_SHIFT).addFirst(buf);
+        retainedBytes += buf.length;
+        if (retainedBytes > peakRetainedBytes) peakRetainedBytes = retainedBytes;
+    }
+
+    // Drops everything held; the next acquires allocate again.
+    static synchronized void trim() {
+        for (ArrayDeque<byte[]> free : FREE) free.clear();
+        Log.d(TAG, "Trimmed " + retainedBytes / 1024 + " KB");
+        retainedBytes = 0;
+    }
+
+    static synchronized Stats stats() {
+        return new Stats(hits, misses, retainedBytes, peakRetainedBytes);
+    }
+
+    private static int shiftFor(int bytes) {
+        if (bytes <= 1 << MIN_SHIFT) return MIN_SHIFT;
+        return 32 - Integer.numberOfLeadingZeros(bytes - 1);
+    }
+}
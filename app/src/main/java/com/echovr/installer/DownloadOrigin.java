@@ -0,0 +1,99 @@
+package com.echovr.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import okhttp3.Response;
+
+// Where a partial download came from and what it is a prefix of, kept next to the file. A reconnect
+// to the same mirror sends the validator as If-Range, so a file replaced on the server comes back as
+// a fresh 200 instead of being spliced onto the old bytes. Another mirror is only trusted to continue
+// it when it serves the same ETag, or the same length for a file whose hash is checked at the end.
+final class DownloadOrigin {
+
+    final String url;
+    // Strong ETag or Last-Modified of the mirror, usable in If-Range; null if the server sent neither
+    final String validator;
+    final String etag;
+    // Full length of the file, -1 if unknown
+    final long length;
+
+    DownloadOrigin(String url, String validator, String etag, long length) {
+        this.url = url;
+        this.validator = validator;
+        this.etag = etag;
+        this.length = length;
+    }
+
+    static DownloadOrigin of(String url, Response response, long length) {
+        String etag = response.header("ETag");
+        String validator = etag != null && !etag.startsWith("W/") ? etag : response.header("Last-Modified");
+        return new DownloadOrigin(url, validator, etag, length);
+    }
+
+    // Total length from a 206's Content-Range, -1 if missing or "*".
+    static long rangeTotal(Response response) {
+        String range = response.header("Content-Range");
+        if (range == null) return -1;
+        int slash = range.lastIndexOf('/');
+        try {
+            return slash >= 0 ? Long.parseLong(range.substring(slash + 1).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // First byte of a 206's Content-Range, -1 if it can't be read.
+    static long rangeStart(Response response) {
+        String range = response.header("Content-Range");
+        if (range == null || !range.startsWith("bytes ")) return -1;
+        int dash = range.indexOf('-');
+        try {
+            return dash > 6 ? Long.parseLong(range.substring(6, dash).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Whether a different mirror's ranged response can continue this file.
+    boolean matches(Response response, boolean hashChecked) {
+        String otherEtag = response.header("ETag");
+        if (etag != null && etag.equals(otherEtag)) return true;
+        return hashChecked && length > 0 && length == rangeTotal(response);
+    }
+
+    static File fileFor(File download) {
+        return new File(download.getPath() + ".origin");
+    }
+
+    static DownloadOrigin load(File download) {
+        File file = fileFor(download);
+        if (!file.exists()) return null;
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            p.load(in);
+            String url = p.getProperty("url");
+            if (url == null) return null;
+            return new DownloadOrigin(url, p.getProperty("validator"), p.getProperty("etag"),
+                    Long.parseLong(p.getProperty("length", "-1")));
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    void save(File download) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("url", url);
+        if (validator != null) p.setProperty("validator", validator);
+        if (etag != null) p.setProperty("etag", etag);
+        p.setProperty("length", Long.toString(length));
+        try (OutputStream out = new FileOutputStream(fileFor(download))) {
+            p.store(out, null);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.echovr.installer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Copies a network stream to a file with the socket and the disk working at the same time. The
+// calling thread only reads: it fills fixed-size slots from a bounded ring and hands them over. A
+// writer thread drains each slot with one large write and feeds the digest. A slow flash write no
+// longer stalls the socket and a network stall no longer idles the disk; throughput is set by the
+// slower of the two.
+final class DownloadPipe {
+
+    interface Listener {
+        boolean isCancelled();
+
+        // Writer thread, after each slot is on disk. total counts from the start of the file.
+        void onWritten(long total) throws IOException;
+    }
+
+    // Thrown when the file side failed; reconnecting won't help with these
+    static final class WriteFailure extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        WriteFailure(Throwable cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "DownloadPipe-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final class Slot {
+        final byte[] data;
+        int length;
+
+        Slot(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    // Marks the end of the stream in the filled queue
+    private static final Slot END = new Slot(new byte[0]);
+
+    private DownloadPipe() {}
+
+    // Returns false if the listener cancelled; throws if either side failed. Slot size and count come
+    // from IoTuner, sized to the network this device has been seeing.
+    static boolean copy(InputStream in, FileChannel out, Sha256 digest, long startOffset, Listener listener) throws IOException {
+        IoTuner.Settings tuning = IoTuner.settings();
+        int slotBytes = tuning.pipeSlotBytes;
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<>(tuning.pipeSlots);
+        BlockingQueue<Slot> filled = new ArrayBlockingQueue<>(tuning.pipeSlots + 1);
+        Slot[] slots = new Slot[tuning.pipeSlots];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(BufferPool.acquire(slotBytes));
+            free.add(slots[i]);
+        }
+
+        Future<?> writer = WRITERS.submit(() -> {
+            long total = startOffset;
+            while (true) {
+                Slot slot = filled.take();
+                if (slot == END) return null;
+                ByteBuffer buf = ByteBuffer.wrap(slot.data, 0, slot.length);
+                while (buf.hasRemaining()) out.write(buf);
+                digest.update(slot.data, 0, slot.length);
+                total += slot.length;
+                free.put(slot);
+                listener.onWritten(total);
+            }
+        });
+
+        boolean completed = false;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                if (listener.isCancelled()) break;
+                Slot slot = takeFree(free, writer);
+                if (slot == null) break;
+
+                // Coalesce the socket's small reads into one full slot before handing it over
+                int n = 0;
+                int len;
+                try {
+                    while (n < slotBytes && (len = in.read(slot.data, n, slotBytes - n)) != -1) n += len;
+                } catch (IOException e) {
+                    // Keep what arrived before the connection broke; a reconnect starts after it
+                    if (n > 0) {
+                        slot.length = n;
+                        filled.put(slot);
+                    }
+                    throw e;
+                }
+                if (n > 0) {
+                    slot.length = n;
+                    filled.put(slot);
+                }
+                if (n < slotBytes) {
+                    completed = true;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            // Whatever was handed over is written before the writer stops, and the caller only regains
+            // control once it has, so the file and the digest always agree
+            filled.offer(END);
+            Throwable failure = null;
+            while (true) {
+                try {
+                    writer.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                    break;
+                }
+            }
+            // The writer has stopped, so no slot is in use any more
+            for (Slot slot : slots) BufferPool.release(slot.data);
+            if (interrupted) Thread.currentThread().interrupt();
+            if (failure != null) throw new WriteFailure(failure);
+        }
+        if (interrupted) throw new InterruptedIOException("Download interrupted");
+        return completed && !listener.isCancelled();
+    }
+
+    // Waits for a free slot, giving up if the writer died so the reader doesn't block forever.
+    private static Slot takeFree(BlockingQueue<Slot> free, Future<?> writer) throws InterruptedException {
+        while (true) {
+            Slot slot = free.poll(100, TimeUnit.MILLISECONDS);
+            if (slot != null) return slot;
+            if (writer.isDone()) return null;
+        }
+    }
+}
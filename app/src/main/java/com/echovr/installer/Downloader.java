@@ -0,0 +1,206 @@
+package com.echovr.installer;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Resumable single-file HTTP download. The SHA-256 is computed on the stream as it is written and
+// saved next to the file every few MB, so a resumed download extends it instead of re-reading what is
+// already on disk. Socket reads and disk writes overlap through DownloadPipe.
+// A connection that drops mid-body is reopened at the current offset after a jittered backoff, with
+// If-Range so a file replaced on the server restarts cleanly. A partial left by another mirror is
+// only continued if DownloadOrigin says this one serves the same file. Reconnects are all handled here,
+// so HttpTransport's own retries are turned off for these requests.
+final class Downloader {
+
+    interface Listener {
+        boolean isCancelled();
+
+        // Calling thread, as each response's headers arrive: how long the server took to answer.
+        void onResponse(long waitMillis);
+
+        // Writer thread, after each chunk is on disk. total is -1 when the server didn't give a length.
+        void onProgress(long done, long total);
+    }
+
+    private static final String TAG = "Downloader";
+    private static final long DIGEST_SAVE_BYTES = 8L * 1024 * 1024;
+
+    private final long connectTimeoutMs;
+    private final int maxReconnects;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+
+    Downloader(int maxReconnects, long baseDelayMs, long maxDelayMs) {
+        this(0, maxReconnects, baseDelayMs, maxDelayMs);
+    }
+
+    // connectTimeoutMs, when above 0, replaces the transport's connect timeout for this downloader's calls.
+    Downloader(long connectTimeoutMs, int maxReconnects, long baseDelayMs, long maxDelayMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.maxReconnects = maxReconnects;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    // Downloads url into file, continuing whatever is already there when it safely can. expectedSha256
+    // may be null; when set, a partial from another mirror of the same length may be continued because
+    // the caller checks the hash at the end. Null if cancelled or failed.
+    File download(String url, File file, String expectedSha256, Listener listener) {
+        File digestState = digestStateFile(file);
+        DownloadOrigin origin = DownloadOrigin.load(file);
+        Sha256 digest = null;
+        int failures = 0;
+        boolean restarted = false;
+
+        try {
+            while (true) {
+                long downloaded = file.exists() ? file.length() : 0;
+                boolean sameMirror = origin != null && origin.url.equals(url);
+
+                Request.Builder request = new Request.Builder().url(url).header("User-Agent", "Mozilla/5.0")
+                        .tag(HttpTransport.NoRetry.class, HttpTransport.NoRetry.INSTANCE);
+                if (downloaded > 0) {
+                    request.header("Range", "bytes=" + downloaded + "-");
+                    if (sameMirror && origin.validator != null) request.header("If-Range", origin.validator);
+                }
+
+                try (Response response = client().newCall(request.build()).execute()) {
+                    int responseCode = response.code();
+                    listener.onResponse(response.receivedResponseAtMillis() - response.sentRequestAtMillis());
+
+                    if (responseCode == 416 && downloaded > 0) {
+                        if (origin == null || origin.length < 0 || origin.length == downloaded) return file;
+                    }
+
+                    boolean append = false;
+                    if (responseCode == HttpURLConnection.HTTP_PARTIAL && downloaded > 0
+                            && DownloadOrigin.rangeStart(response) == downloaded) {
+                        append = sameMirror || (origin != null ? origin.matches(response, expectedSha256 != null) : expectedSha256 != null);
+                        if (!append) Log.w(TAG, url + " serves a different " + file.getName() + ", starting over");
+                    }
+
+                    // A 200 means no range was asked for, or If-Range found the file changed
+                    if (append || responseCode == HttpURLConnection.HTTP_OK) {
+                        long contentLength = response.body().contentLength();
+                        if (append) {
+                            if (digest == null || digest.count() != downloaded) digest = Sha256.resume(digestState, file);
+                            long total = DownloadOrigin.rangeTotal(response);
+                            origin = DownloadOrigin.of(url, response, total > 0 ? total : (origin != null ? origin.length : -1));
+                        } else {
+                            downloaded = 0;
+                            digest = new Sha256();
+                            digestState.delete();
+                            origin = DownloadOrigin.of(url, response, contentLength > 0 ? contentLength : -1);
+                        }
+                        origin.save(file);
+
+                        long total = origin.length > 0 ? origin.length : (contentLength > 0) ? (contentLength + downloaded) : -1;
+                        try (FileOutputStream output = new FileOutputStream(file, append)) {
+                            DownloadPipe.Listener pipeListener = pipeListener(digest, digestState, downloaded, total, listener);
+                            if (!DownloadPipe.copy(response.body().byteStream(), output.getChannel(), digest, downloaded, pipeListener)) {
+                                return null;
+                            }
+                        }
+                        return (file.exists() && file.length() > 0) ? file : null;
+                    }
+
+                    if (responseCode < 500 && responseCode != 429) {
+                        // The partial can't be continued from here: drop it and ask for the whole file once
+                        if (downloaded == 0 || restarted) return null;
+                        restarted = true;
+                        discard(file);
+                        origin = null;
+                        digest = null;
+                        continue;
+                    }
+                    Log.w(TAG, "HTTP " + responseCode + " for " + file.getName());
+                } catch (DownloadPipe.WriteFailure e) {
+                    throw e;
+                } catch (IOException e) {
+                    if (listener.isCancelled()) return null;
+                    // A connection that delivered something resets the backoff
+                    if (file.length() > downloaded) failures = 0;
+                    Log.w(TAG, "Connection lost at " + file.length() + " of " + file.getName() + ": " + e.getMessage());
+                }
+
+                if (++failures > maxReconnects || !backOff(failures, listener)) return null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Download error: " + e.getMessage());
+            return null;
+        } finally {
+            try {
+                // Never ahead of the file, so the next resume only has to extend it
+                if (digest != null && digest.count() == file.length()) digest.save(digestState);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // Derived clients share the transport's pool, so a shorter timeout costs no extra connections.
+    private OkHttpClient client() {
+        OkHttpClient shared = HttpTransport.client();
+        if (connectTimeoutMs <= 0) return shared;
+        return shared.newBuilder().connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS).build();
+    }
+
+    private static DownloadPipe.Listener pipeListener(Sha256 digest, File digestState, long startOffset, long total,
+                                                      Listener listener) {
+        return new DownloadPipe.Listener() {
+            private long nextDigestSave = startOffset + DIGEST_SAVE_BYTES;
+
+            @Override
+            public boolean isCancelled() {
+                return listener.isCancelled();
+            }
+
+            @Override
+            public void onWritten(long done) throws IOException {
+                if (done >= nextDigestSave) {
+                    digest.save(digestState);
+                    nextDigestSave = done + DIGEST_SAVE_BYTES;
+                }
+                listener.onProgress(done, total);
+            }
+        };
+    }
+
+    // Full jitter over an exponential ceiling, so installers that lost the same Wi-Fi don't all come
+    // back at once. Sleeps in slices to notice cancellation; false if cancelled while waiting.
+    private boolean backOff(int failures, Listener listener) {
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << Math.min(failures - 1, 16));
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        long until = System.nanoTime() + delay * 1_000_000L;
+        try {
+            long left;
+            while ((left = until - System.nanoTime()) > 0) {
+                if (listener.isCancelled()) return false;
+                Thread.sleep(Math.min(250, left / 1_000_000L + 1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !listener.isCancelled();
+    }
+
+    static File digestStateFile(File file) {
+        return new File(file.getPath() + ".sha256state");
+    }
+
+    // Removes a download with everything kept next to it.
+    static void discard(File file) {
+        file.delete();
+        digestStateFile(file).delete();
+        DownloadOrigin.fileFor(file).delete();
+    }
+}
@@ -0,0 +1,107 @@
+package com.echovr.installer;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Minimal ELF section header reader, just enough to find where string data lives in a shared library.
+public final class ElfSections {
+
+    public static final class Section {
+        public final String name;
+        public final long offset;
+        public final long size;
+
+        Section(String name, long offset, long size) {
+            this.name = name;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private static final int SHT_NOBITS = 8;
+    private static final long SHF_EXECINSTR = 0x4;
+
+    private ElfSections() {}
+
+    // Read-only data sections that can hold C strings. Code (.text, .plt) and relocation/symbol
+    // tables are never included, whatever their content happens to look like.
+    public static boolean isStringBearing(String name) {
+        return name.equals(".rodata") || name.startsWith(".rodata.")
+                || name.equals(".dynstr") || name.equals(".data");
+    }
+
+    // Non-executable sections that occupy file space. Returns null if the file is not an ELF image
+    // or its section table is missing or unreadable.
+    public static List<Section> read(RandomAccessFile file) throws IOException {
+        byte[] ident = new byte[16];
+        file.seek(0);
+        if (file.read(ident) != 16) return null;
+        if (ident[0] != 0x7F || ident[1] != 'E' || ident[2] != 'L' || ident[3] != 'F') return null;
+
+        boolean is64 = ident[4] == 2;
+        ByteOrder order = ident[5] == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+        ByteBuffer header = readAt(file, 0, is64 ? 64 : 52, order);
+        if (header == null) return null;
+        long shoff = is64 ? header.getLong(0x28) : header.getInt(0x20) & 0xFFFFFFFFL;
+        int shentsize = header.getShort(is64 ? 0x3A : 0x2E) & 0xFFFF;
+        int shnum = header.getShort(is64 ? 0x3C : 0x30) & 0xFFFF;
+        int shstrndx = header.getShort(is64 ? 0x3E : 0x32) & 0xFFFF;
+
+        if (shoff <= 0 || shnum == 0 || shstrndx >= shnum || shentsize < (is64 ? 64 : 40)) return null;
+        ByteBuffer table = readAt(file, shoff, (long) shentsize * shnum, order);
+        if (table == null) return null;
+
+        long[] nameOff = new long[shnum];
+        long[] type = new long[shnum];
+        long[] flags = new long[shnum];
+        long[] offset = new long[shnum];
+        long[] size = new long[shnum];
+        for (int i = 0; i < shnum; i++) {
+            int base = i * shentsize;
+            nameOff[i] = table.getInt(base) & 0xFFFFFFFFL;
+            type[i] = table.getInt(base + 4) & 0xFFFFFFFFL;
+            if (is64) {
+                flags[i] = table.getLong(base + 8);
+                offset[i] = table.getLong(base + 24);
+                size[i] = table.getLong(base + 32);
+            } else {
+                flags[i] = table.getInt(base + 8) & 0xFFFFFFFFL;
+                offset[i] = table.getInt(base + 16) & 0xFFFFFFFFL;
+                size[i] = table.getInt(base + 20) & 0xFFFFFFFFL;
+            }
+        }
+
+        ByteBuffer names = readAt(file, offset[shstrndx], size[shstrndx], order);
+        if (names == null) return null;
+
+        List<Section> sections = new ArrayList<>();
+        long length = file.length();
+        for (int i = 0; i < shnum; i++) {
+            if (type[i] == SHT_NOBITS || size[i] == 0 || (flags[i] & SHF_EXECINSTR) != 0) continue;
+            if (offset[i] < 0 || offset[i] + size[i] > length) continue;
+            sections.add(new Section(cString(names, nameOff[i]), offset[i], size[i]));
+        }
+        return sections;
+    }
+
+    private static ByteBuffer readAt(RandomAccessFile file, long pos, long len, ByteOrder order) throws IOException {
+        if (pos < 0 || len <= 0 || len > Integer.MAX_VALUE || pos + len > file.length()) return null;
+        byte[] buf = new byte[(int) len];
+        file.seek(pos);
+        file.readFully(buf);
+        return ByteBuffer.wrap(buf).order(order);
+    }
+
+    private static String cString(ByteBuffer buf, long start) {
+        if (start >= buf.capacity()) return "";
+        int end = (int) start;
+        while (end < buf.capacity() && buf.get(end) != 0) end++;
+        return new String(buf.array(), (int) start, end - (int) start, StandardCharsets.US_ASCII);
+    }
+}
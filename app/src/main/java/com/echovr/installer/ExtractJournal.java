@@ -0,0 +1,90 @@
+package com.echovr.installer;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+// Which entries of an archive are already extracted. Unlike the job checkpoint it outlives a cancel,
+// so installing the same archive again only inflates what is missing. It belongs to one archive,
+// named by its location, length and modification time; anything else starts a fresh journal. Saved
+// to a temp file and renamed, so a kill mid-save leaves the previous journal intact.
+final class ExtractJournal {
+
+    private static final String TAG = "ExtractJournal";
+    private static final int MAGIC = 0x454A4E4C;
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final String location;
+    private final long length;
+    private final long modified;
+    private final int entryCount;
+    private final BitSet done;
+
+    private ExtractJournal(File file, String location, long length, long modified, int entryCount, BitSet done) {
+        this.file = file;
+        this.location = location;
+        this.length = length;
+        this.modified = modified;
+        this.entryCount = entryCount;
+        this.done = done;
+    }
+
+    // archive is what location currently opens to.
+    static ExtractJournal open(File file, String location, File archive, int entryCount) {
+        long length = archive.length();
+        long modified = archive.lastModified();
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION && in.readUTF().equals(location)
+                        && in.readLong() == length && in.readLong() == modified && in.readInt() == entryCount) {
+                    long[] words = new long[in.readInt()];
+                    for (int i = 0; i < words.length; i++) words[i] = in.readLong();
+                    BitSet done = BitSet.valueOf(words);
+                    Log.d(TAG, "Resuming with " + done.cardinality() + " of " + entryCount + " entries extracted");
+                    return new ExtractJournal(file, location, length, modified, entryCount, done);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Ignoring unreadable journal: " + e.getMessage());
+            }
+        }
+        return new ExtractJournal(file, location, length, modified, entryCount, new BitSet(entryCount));
+    }
+
+    synchronized boolean isDone(int index) {
+        return done.get(index);
+    }
+
+    synchronized void markDone(int index) {
+        done.set(index);
+    }
+
+    synchronized void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(fos)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(location);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeInt(entryCount);
+            long[] words = done.toLongArray();
+            out.writeInt(words.length);
+            for (long word : words) out.writeLong(word);
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) throw new IOException("Cannot store " + file.getName());
+    }
+
+    void delete() {
+        file.delete();
+    }
+}
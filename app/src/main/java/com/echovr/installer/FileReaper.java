@@ -0,0 +1,123 @@
+package com.echovr.installer;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FileReaper {
+
+    public interface ReapListener {
+        void onReapProgress(File tombstone, long deletedCount);
+        void onReapFinished(File tombstone, long deletedCount, boolean complete);
+    }
+
+    private static final String TAG = "FileReaper";
+    private static final String TOMBSTONE_PREFIX = ".reaper-";
+    private static final int PROGRESS_INTERVAL = 500;
+
+    private final ExecutorService coordinator;
+    private final ForkJoinPool walkers;
+    private final ReapListener listener;
+
+    public FileReaper(ReapListener listener) {
+        this.listener = listener;
+        this.coordinator = Executors.newSingleThreadExecutor();
+        this.walkers = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Renames target out of the way so its path is free immediately, then unlinks it in the background.
+    // Falls back to deleting in place if the rename is refused (e.g. cross-volume). The future completes
+    // once the unlinking is over, true if nothing was left behind; null if there was nothing to bury.
+    public CompletableFuture<Boolean> bury(File target) {
+        if (target == null || !target.exists()) return null;
+
+        File parent = target.getParentFile();
+        File tombstone = parent == null ? null
+                : new File(parent, TOMBSTONE_PREFIX + target.getName() + "-" + System.currentTimeMillis());
+
+        if (tombstone != null && target.renameTo(tombstone)) {
+            return reap(tombstone);
+        }
+        Log.w(TAG, "Rename failed, deleting in place: " + target);
+        return reap(target);
+    }
+
+    // Picks up tombstones left behind by a previous process that was killed mid-cleanup.
+    public void resume(File... parents) {
+        coordinator.execute(() -> {
+            List<File> pending = new ArrayList<>();
+            for (File parent : parents) {
+                if (parent == null) continue;
+                File[] children = parent.listFiles();
+                if (children == null) continue;
+                for (File child : children) {
+                    if (child.getName().startsWith(TOMBSTONE_PREFIX)) pending.add(child);
+                }
+            }
+            for (File tombstone : pending) {
+                Log.d(TAG, "Resuming cleanup of " + tombstone);
+                reap(tombstone);
+            }
+        });
+    }
+
+    private CompletableFuture<Boolean> reap(File root) {
+        return CompletableFuture.supplyAsync(() -> {
+            AtomicLong deleted = new AtomicLong();
+            try {
+                walkers.invoke(new DeleteTask(root, root, deleted));
+            } catch (Exception e) {
+                Log.e(TAG, "Cleanup interrupted: " + root, e);
+            }
+            boolean complete = !root.exists();
+            if (listener != null) listener.onReapFinished(root, deleted.get(), complete);
+            return complete;
+        }, coordinator);
+    }
+
+    private class DeleteTask extends RecursiveAction {
+        private final File root;
+        private final File file;
+        private final AtomicLong deleted;
+
+        DeleteTask(File root, File file, AtomicLong deleted) {
+            this.root = root;
+            this.file = file;
+            this.deleted = deleted;
+        }
+
+        @Override
+        protected void compute() {
+            File[] children = file.isDirectory() ? file.listFiles() : null;
+            if (children != null && children.length > 0) {
+                List<DeleteTask> subdirs = new ArrayList<>();
+                for (File child : children) {
+                    if (child.isDirectory()) {
+                        subdirs.add(new DeleteTask(root, child, deleted));
+                    } else {
+                        unlink(child);
+                    }
+                }
+                invokeAll(subdirs);
+            }
+            unlink(file);
+        }
+
+        private void unlink(File f) {
+            if (f.delete()) {
+                long count = deleted.incrementAndGet();
+                if (listener != null && count % PROGRESS_INTERVAL == 0) {
+                    listener.onReapProgress(root, count);
+                }
+            }
+        }
+    }
+}
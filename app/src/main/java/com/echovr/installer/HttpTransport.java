@@ -0,0 +1,110 @@
+package com.echovr.installer;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Process-wide HTTP client. Every request shares one connection pool, so config checks, patch assets,
+// APKs and range requests against the same mirror reuse warm keep-alive / HTTP/2 connections instead
+// of paying a fresh TLS handshake each time.
+public final class HttpTransport {
+
+    public static final String USER_AGENT = "EchoVR-Installer";
+
+    private static final String TAG = "HttpTransport";
+    private static final int CONNECT_TIMEOUT_SEC = 15;
+    private static final int READ_TIMEOUT_SEC = 30;
+    private static final int MAX_RETRIES = 2;
+    private static final long RETRY_BASE_DELAY_MS = 500;
+
+    private static final ConnectionPool POOL = new ConnectionPool(8, 5, TimeUnit.MINUTES);
+
+    private static volatile OkHttpClient client = new OkHttpClient.Builder()
+            .connectionPool(POOL)
+            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .connectTimeout(CONNECT_TIMEOUT_SEC, TimeUnit.SECONDS)
+            .readTimeout(READ_TIMEOUT_SEC, TimeUnit.SECONDS)
+            .writeTimeout(READ_TIMEOUT_SEC, TimeUnit.SECONDS)
+            .followRedirects(true)
+            .followSslRedirects(true)
+            .addInterceptor(HttpTransport::applyDefaults)
+            .addInterceptor(HttpTransport::retry)
+            .build();
+
+    // Tags a request whose caller retries on its own terms, so retry() leaves it alone instead of
+    // multiplying the caller's attempts.
+    static final class NoRetry {
+        static final NoRetry INSTANCE = new NoRetry();
+
+        private NoRetry() {}
+    }
+
+    private HttpTransport() {}
+
+    public static OkHttpClient client() {
+        return client;
+    }
+
+    // Interceptors are layered onto the shared client; derived clients keep the same pool and dispatcher.
+    // Callers read client() for each call rather than keeping one, so they pick up what is added later.
+    public static synchronized void addInterceptor(Interceptor interceptor) {
+        client = client.newBuilder().addInterceptor(interceptor).build();
+    }
+
+    public static synchronized void addNetworkInterceptor(Interceptor interceptor) {
+        client = client.newBuilder().addNetworkInterceptor(interceptor).build();
+    }
+
+    private static Response applyDefaults(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.header("User-Agent") == null) {
+            request = request.newBuilder().header("User-Agent", USER_AGENT).build();
+        }
+        return chain.proceed(request);
+    }
+
+    // Retries idempotent requests that fail before a usable response arrives (connect errors, 5xx, 429).
+    // Failures in the middle of a body are left to the caller, which knows how far it got.
+    private static Response retry(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.tag(NoRetry.class) != null) return chain.proceed(request);
+        boolean idempotent = request.method().equals("GET") || request.method().equals("HEAD");
+
+        for (int attempt = 0; ; attempt++) {
+            boolean canRetry = idempotent && attempt < MAX_RETRIES;
+            try {
+                Response response = chain.proceed(request);
+                int code = response.code();
+                if (!canRetry || (code < 500 && code != 429)) return response;
+                response.close();
+                Log.w(TAG, "HTTP " + code + " from " + request.url().host() + ", retrying");
+            } catch (IOException e) {
+                if (!canRetry || chain.call().isCanceled()) throw e;
+                Log.w(TAG, "Request to " + request.url().host() + " failed, retrying: " + e.getMessage());
+            }
+
+            // In slices, so a call cancelled while waiting doesn't go out again
+            long until = System.nanoTime() + (RETRY_BASE_DELAY_MS << attempt) * 1_000_000L;
+            try {
+                long left;
+                while ((left = until - System.nanoTime()) > 0) {
+                    if (chain.call().isCanceled()) throw new IOException("Canceled");
+                    Thread.sleep(Math.min(100, left / 1_000_000L + 1));
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Retry interrupted");
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.echovr.installer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+// The install in progress, persisted at every checkpoint so a job killed with the process restarts
+// from the last completed stage instead of from scratch. Only one job exists at a time.
+//
+//   QUEUED -> DOWNLOADED -> EXTRACTING -> done                game data, entries in ExtractJournal
+//   QUEUED -> DOWNLOADED -> PATCHED -> done                   APKs, signed into an install session
+//   QUEUED -> DOWNLOADED -> PATCHED -> SIGNED -> done         APKs, when no session can be opened
+//   QUEUED -> SIGNED -> done                                  installer updates
+final class InstallJob {
+
+    enum Kind { GAME_DATA, APK, BETTER_GRAPHICS, UPDATE }
+
+    enum Stage { QUEUED, DOWNLOADED, EXTRACTING, PATCHED, SIGNED }
+
+    private static final String PREFS_NAME = "EchoVRInstallJob";
+    private static final String KEY_JOB = "job";
+
+    final Kind kind;
+    final String name;
+    // Download sources in config order; an import's location as its only entry
+    final List<String> mirrors;
+    final String dirType;
+    final String fileName;
+    // Artifact name served between LAN peers and its expected hash; either may be null
+    final String peerKey;
+    final String sha256;
+
+    Stage stage = Stage.QUEUED;
+    // File produced by the last completed stage, input to the next one
+    String artifact;
+    // Started from a user file or content:// document at DOWNLOADED; the artifact is never deleted
+    boolean imported;
+
+    InstallJob(Kind kind, String name, List<String> mirrors, String dirType, String fileName,
+               String peerKey, String sha256) {
+        this.kind = kind;
+        this.name = name;
+        this.mirrors = mirrors;
+        this.dirType = dirType;
+        this.fileName = fileName;
+        this.peerKey = peerKey;
+        this.sha256 = sha256;
+    }
+
+    File artifactFile() {
+        return artifact != null ? new File(artifact) : null;
+    }
+
+    void advance(Context context, Stage next, File output) {
+        stage = next;
+        artifact = output != null ? output.getAbsolutePath() : null;
+        save(context);
+    }
+
+    // A checkpoint whose file has since disappeared (cache cleared, storage wiped) can't be resumed.
+    // Imports are always retried from their source; if it is gone the job fails when it opens it.
+    boolean isResumable() {
+        return stage == Stage.QUEUED || imported || (artifact != null && new File(artifact).exists());
+    }
+
+    void restart(Context context) {
+        stage = Stage.QUEUED;
+        artifact = null;
+        save(context);
+    }
+
+    void save(Context context) {
+        try {
+            JSONObject json = new JSONObject()
+                    .put("kind", kind.name())
+                    .put("name", name)
+                    .put("mirrors", new JSONArray(mirrors))
+                    .put("dirType", dirType)
+                    .put("fileName", fileName)
+                    .put("peerKey", peerKey)
+                    .put("sha256", sha256)
+                    .put("stage", stage.name())
+                    .put("artifact", artifact)
+                    .put("imported", imported);
+            // commit, not apply: the checkpoint has to be on disk before the next stage starts
+            prefs(context).edit().putString(KEY_JOB, json.toString()).commit();
+        } catch (JSONException e) {
+            Log.e("InstallJob", "Cannot persist job", e);
+        }
+    }
+
+    static InstallJob load(Context context) {
+        String stored = prefs(context).getString(KEY_JOB, null);
+        if (stored == null) return null;
+        try {
+            JSONObject json = new JSONObject(stored);
+            JSONArray list = json.getJSONArray("mirrors");
+            List<String> mirrors = new ArrayList<>();
+            for (int i = 0; i < list.length(); i++) mirrors.add(list.getString(i));
+            InstallJob job = new InstallJob(
+                    Kind.valueOf(json.getString("kind")),
+                    json.getString("name"),
+                    mirrors,
+                    json.getString("dirType"),
+                    json.getString("fileName"),
+                    json.optString("peerKey", null),
+                    json.optString("sha256", null));
+            job.stage = Stage.valueOf(json.getString("stage"));
+            job.artifact = json.optString("artifact", null);
+            job.imported = json.optBoolean("imported", false);
+            return job;
+        } catch (JSONException | IllegalArgumentException e) {
+            Log.w("InstallJob", "Discarding unreadable job: " + e.getMessage());
+            clear(context);
+            return null;
+        }
+    }
+
+    static void clear(Context context) {
+        prefs(context).edit().remove(KEY_JOB).commit();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
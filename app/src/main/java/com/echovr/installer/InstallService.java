@@ -0,0 +1,130 @@
+package com.echovr.installer;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// Keeps the process in the foreground while an install job runs, so leaving the app or the headset
+// going to sleep doesn't stop it. The job itself runs in InstallerManager; this holds the notification
+// and the wake locks, and picks up the pending job if the system recreates the service after a kill.
+public class InstallService extends Service {
+
+    private static final String CHANNEL_ID = "install_jobs";
+    private static final int NOTIFICATION_ID = 1;
+    private static final long WAKE_LOCK_TIMEOUT_MS = 3 * 60 * 60 * 1000L;
+    private static final long UPDATE_INTERVAL_MS = 1000;
+
+    private static volatile InstallService running;
+    private static long lastUpdate;
+    private static final Set<String> holders = new HashSet<>();
+
+    private PowerManager.WakeLock wakeLock;
+    private WifiManager.WifiLock wifiLock;
+
+    // Main thread only. The service stays up while anything holds it, e.g. a job and a prefetch.
+    static void start(Context context, String holder) {
+        holders.add(holder);
+        context.startForegroundService(new Intent(context, InstallService.class));
+    }
+
+    static void stop(Context context, String holder) {
+        holders.remove(holder);
+        if (holders.isEmpty()) context.stopService(new Intent(context, InstallService.class));
+    }
+
+    // Called on the main thread for every progress tick; the notification is refreshed at most once a second.
+    static void update(int progress, String message) {
+        InstallService service = running;
+        if (service == null) return;
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastUpdate < UPDATE_INTERVAL_MS) return;
+        lastUpdate = now;
+        service.getSystemService(NotificationManager.class).notify(NOTIFICATION_ID, service.buildNotification(progress, message));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Installs", NotificationManager.IMPORTANCE_LOW);
+        getSystemService(NotificationManager.class).createNotificationChannel(channel);
+
+        wakeLock = getSystemService(PowerManager.class).newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "EchoVRInstaller:install");
+        wakeLock.setReferenceCounted(false);
+        WifiManager wifi = getApplicationContext().getSystemService(WifiManager.class);
+        if (wifi != null) {
+            wifiLock = wifi.createWifiLock(WifiManager.WIFI_MODE_FULL_HIGH_PERF, "EchoVRInstaller:install");
+            wifiLock.setReferenceCounted(false);
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Notification notification = buildNotification(-1, "Preparing...");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+        running = this;
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+        if (wifiLock != null) wifiLock.acquire();
+
+        // A null intent means the system restarted us after the process died mid-job
+        if (intent == null) {
+            InstallerManager manager = ((MainApplication) getApplication()).getInstaller();
+            if (!manager.resumePendingJob()) {
+                Log.d("InstallService", "Restarted with no pending job");
+                stopSelf();
+            }
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public void onTimeout(int startId, int fgsType) {
+        // dataSync services get a daily budget on Android 15; the job keeps its checkpoint for next launch
+        Log.w("InstallService", "Foreground time limit reached");
+        stopSelf();
+    }
+
+    @Override
+    public void onDestroy() {
+        running = null;
+        if (wakeLock.isHeld()) wakeLock.release();
+        if (wifiLock != null && wifiLock.isHeld()) wifiLock.release();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private Notification buildNotification(int progress, String message) {
+        Intent open = new Intent(this, MainActivity.class).setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, open, PendingIntent.FLAG_IMMUTABLE);
+        return new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setContentTitle("Echo VR Installer")
+                .setContentText(message)
+                .setProgress(100, Math.max(progress, 0), progress < 0)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setContentIntent(contentIntent)
+                .build();
+    }
+}
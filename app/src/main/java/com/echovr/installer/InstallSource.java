@@ -0,0 +1,44 @@
+package com.echovr.installer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+// An install input named by a plain path or a content:// document. Documents are opened once and
+// read through /proc/self/fd, so ZipFile, FileChannel and the hasher see an ordinary file and an
+// imported archive on USB storage is never copied into app storage first.
+final class InstallSource implements Closeable {
+
+    final File file;
+    private final ParcelFileDescriptor descriptor;
+
+    private InstallSource(File file, ParcelFileDescriptor descriptor) {
+        this.file = file;
+        this.descriptor = descriptor;
+    }
+
+    static boolean isDocument(String location) {
+        return location.startsWith("content:");
+    }
+
+    static InstallSource open(Context context, String location) throws IOException {
+        if (!isDocument(location)) {
+            File file = new File(location);
+            if (!file.exists()) throw new FileNotFoundException(location);
+            return new InstallSource(file, null);
+        }
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(Uri.parse(location), "r");
+        if (pfd == null) throw new FileNotFoundException(location);
+        return new InstallSource(new File("/proc/self/fd/" + pfd.getFd()), pfd);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (descriptor != null) descriptor.close();
+    }
+}
@@ -0,0 +1,184 @@
+package com.echovr.installer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// What is installed, as of the last scan: the game package and the data folders it needs. The UI
+// reads the in-memory snapshot, so checkState never touches PackageManager or external storage on
+// the main thread. Scans run on a worker when InstallStateMonitor or a finished job says something
+// may have changed, and are persisted, so a cold start shows the last known state at once while the
+// first rescan runs. The very first run starts from UNKNOWN until that scan reports.
+final class InstallStateIndex {
+
+    static final String GAME_PACKAGE = "com.readyatdawn.r15";
+
+    private static final String TAG = "InstallStateIndex";
+    private static final String PREFS_NAME = "EchoVRInstallState";
+    private static final String KEY_STATE = "state";
+    static final String[] REQUIRED_DATA_PATHS = {
+            "5932408047/rad15/android/manifests",
+            "5932408047/rad15/android/packages"
+    };
+
+    static final class State {
+        // Before anything has been scanned or persisted
+        static final State UNKNOWN = new State(false, -1, null, false, 0, 0, 0);
+
+        final boolean packageInstalled;
+        final long versionCode;
+        final String versionName;
+        final boolean dataInstalled;
+        // File count and total size across the required data folders
+        final int dataFiles;
+        final long dataBytes;
+        final long scannedAt;
+
+        State(boolean packageInstalled, long versionCode, String versionName, boolean dataInstalled,
+              int dataFiles, long dataBytes, long scannedAt) {
+            this.packageInstalled = packageInstalled;
+            this.versionCode = versionCode;
+            this.versionName = versionName;
+            this.dataInstalled = dataInstalled;
+            this.dataFiles = dataFiles;
+            this.dataBytes = dataBytes;
+            this.scannedAt = scannedAt;
+        }
+
+        boolean isKnown() {
+            return this != UNKNOWN;
+        }
+
+        boolean sameAs(State other) {
+            return other != null && other.isKnown() && isKnown()
+                    && packageInstalled == other.packageInstalled
+                    && versionCode == other.versionCode
+                    && dataInstalled == other.dataInstalled
+                    && dataFiles == other.dataFiles
+                    && dataBytes == other.dataBytes;
+        }
+    }
+
+    private final Context context;
+    private final File dataDir;
+    private final Runnable onChanged;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService scanner = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean scanQueued = new AtomicBoolean();
+    private volatile State current;
+
+    // onChanged runs on the main thread whenever a scan finds something different.
+    InstallStateIndex(Context context, File dataDir, Runnable onChanged) {
+        this.context = context.getApplicationContext();
+        this.dataDir = dataDir;
+        this.onChanged = onChanged;
+        State stored = load();
+        this.current = stored != null ? stored : State.UNKNOWN;
+        refresh();
+    }
+
+    State get() {
+        return current;
+    }
+
+    // Requests a rescan. Requests made while one is waiting to start are folded into it.
+    void refresh() {
+        if (!scanQueued.compareAndSet(false, true)) return;
+        scanner.execute(() -> {
+            scanQueued.set(false);
+            refreshNow();
+        });
+    }
+
+    // Scans on the calling thread; for workers that need the answer right away.
+    synchronized State refreshNow() {
+        State state = scan();
+        State previous = current;
+        current = state;
+        save(state);
+        if (!state.sameAs(previous)) {
+            Log.d(TAG, "Install state changed: package " + state.packageInstalled + " (" + state.versionName
+                    + "), data " + state.dataInstalled + " (" + state.dataFiles + " files)");
+            mainHandler.post(onChanged);
+        }
+        return state;
+    }
+
+    private State scan() {
+        boolean installed = false;
+        long versionCode = -1;
+        String versionName = null;
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(GAME_PACKAGE, 0);
+            installed = true;
+            versionName = info.versionName;
+            versionCode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? info.getLongVersionCode() : info.versionCode;
+        } catch (PackageManager.NameNotFoundException ignored) {}
+
+        boolean dataInstalled = dataDir.isDirectory();
+        int files = 0;
+        long bytes = 0;
+        for (String path : REQUIRED_DATA_PATHS) {
+            File[] listed = new File(dataDir, path).listFiles();
+            if (listed == null || listed.length < 2) {
+                dataInstalled = false;
+                continue;
+            }
+            files += listed.length;
+            for (File f : listed) bytes += f.length();
+        }
+        return new State(installed, versionCode, versionName, dataInstalled, files, bytes, System.currentTimeMillis());
+    }
+
+    private State load() {
+        String stored = prefs().getString(KEY_STATE, null);
+        if (stored == null) return null;
+        try {
+            JSONObject json = new JSONObject(stored);
+            return new State(
+                    json.getBoolean("packageInstalled"),
+                    json.getLong("versionCode"),
+                    json.optString("versionName", null),
+                    json.getBoolean("dataInstalled"),
+                    json.getInt("dataFiles"),
+                    json.getLong("dataBytes"),
+                    json.getLong("scannedAt"));
+        } catch (JSONException e) {
+            Log.w(TAG, "Discarding unreadable state: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(State state) {
+        try {
+            JSONObject json = new JSONObject()
+                    .put("packageInstalled", state.packageInstalled)
+                    .put("versionCode", state.versionCode)
+                    .put("versionName", state.versionName)
+                    .put("dataInstalled", state.dataInstalled)
+                    .put("dataFiles", state.dataFiles)
+                    .put("dataBytes", state.dataBytes)
+                    .put("scannedAt", state.scannedAt);
+            prefs().edit().putString(KEY_STATE, json.toString()).apply();
+        } catch (JSONException e) {
+            Log.e(TAG, "Cannot persist state", e);
+        }
+    }
+
+    private SharedPreferences prefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
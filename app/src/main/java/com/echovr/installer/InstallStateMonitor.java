@@ -0,0 +1,137 @@
+package com.echovr.installer;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PatternMatcher;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+// Tells the install-state index when something it reports may have changed, so nothing has to poll:
+// package broadcasts for the game, and inotify on each folder from the media directory down to the
+// data folders. inotify only sees one level and only folders that exist, so the chain is re-armed
+// whenever a folder on it appears or goes away.
+final class InstallStateMonitor {
+
+    private static final String TAG = "InstallStateMonitor";
+    // A running extraction or a file manager copying data fires thousands of events; scan once they settle
+    private static final long SETTLE_MS = 500;
+    private static final int DIR_EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+            | FileObserver.MOVED_TO | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+    private static final int LEAF_EVENTS = DIR_EVENTS | FileObserver.CLOSE_WRITE;
+
+    private final Context context;
+    private final File mediaDir;
+    private final List<String> watchedPaths;
+    private final Runnable onChange;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Held so they aren't collected, which would stop them watching
+    private final List<FileObserver> observers = new ArrayList<>();
+    private final Runnable settled = this::onSettled;
+    private boolean rearmNeeded;
+
+    private final BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context c, Intent intent) {
+            Log.d(TAG, "Game package " + intent.getAction());
+            onChange.run();
+        }
+    };
+
+    // dataPaths are relative to dataDir, which must be under mediaDir. onChange is called on the main
+    // thread and should only request a rescan.
+    InstallStateMonitor(Context context, File mediaDir, File dataDir, String[] dataPaths, Runnable onChange) {
+        this.context = context.getApplicationContext();
+        this.mediaDir = mediaDir;
+        this.onChange = onChange;
+        this.watchedPaths = new ArrayList<>();
+        for (File dir = dataDir; dir != null && !dir.equals(mediaDir); dir = dir.getParentFile()) {
+            watchedPaths.add(0, dir.getPath());
+        }
+        watchedPaths.add(0, mediaDir.getPath());
+        for (String path : dataPaths) {
+            File leaf = new File(dataDir, path);
+            for (File dir = leaf; dir != null && !dir.equals(dataDir); dir = dir.getParentFile()) {
+                if (!watchedPaths.contains(dir.getPath())) watchedPaths.add(dir.getPath());
+            }
+        }
+    }
+
+    void start() {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        filter.addDataSchemeSpecificPart(InstallStateIndex.GAME_PACKAGE, PatternMatcher.PATTERN_LITERAL);
+        ContextCompat.registerReceiver(context, packageReceiver, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+        mainHandler.post(this::rearm);
+    }
+
+    // Re-creates the folder watches, e.g. once storage access has been granted.
+    void rearm() {
+        for (FileObserver observer : observers) observer.stopWatching();
+        observers.clear();
+        rearmNeeded = false;
+        int watching = 0;
+        for (String path : watchedPaths) {
+            if (!new File(path).isDirectory()) continue;
+            FileObserver observer = new DirObserver(path, isLeaf(path));
+            observer.startWatching();
+            observers.add(observer);
+            watching++;
+        }
+        Log.d(TAG, "Watching " + watching + " of " + watchedPaths.size() + " folders under " + mediaDir);
+    }
+
+    private boolean isLeaf(String path) {
+        for (String other : watchedPaths) {
+            if (other.startsWith(path + "/")) return false;
+        }
+        return true;
+    }
+
+    private void onSettled() {
+        if (rearmNeeded) rearm();
+        onChange.run();
+    }
+
+    // FileObserver thread; hands the event to the main thread and restarts the settle timer.
+    private void onEvent(String dir, int event, String name, boolean leaf) {
+        if ((event & FileObserver.ALL_EVENTS) == 0) return;
+        boolean structural = (event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0
+                || (name != null && watchedPaths.contains(dir + "/" + name));
+        // Above the data folders only the chain itself matters, not other apps' folders
+        if (!structural && !leaf) return;
+        mainHandler.post(() -> {
+            if (structural) rearmNeeded = true;
+            mainHandler.removeCallbacks(settled);
+            mainHandler.postDelayed(settled, SETTLE_MS);
+        });
+    }
+
+    private final class DirObserver extends FileObserver {
+        private final String dir;
+        private final boolean leaf;
+
+        DirObserver(String dir, boolean leaf) {
+            super(dir, leaf ? LEAF_EVENTS : DIR_EVENTS);
+            this.dir = dir;
+            this.leaf = leaf;
+        }
+
+        @Override
+        public void onEvent(int event, String name) {
+            InstallStateMonitor.this.onEvent(dir, event, name, leaf);
+        }
+    }
+}
@@ -1,23 +1,27 @@
 package com.echovr.installer;
 
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.content.pm.PackageInstaller;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.os.StatFs;
 import android.util.Log;
 
+import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -25,17 +29,34 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// One per process, created and held by MainApplication. It is never torn down: its executors,
+// receivers and folder watchers live exactly as long as the process does.
 public class InstallerManager {
 
     public interface Listener {
@@ -46,39 +67,154 @@ public class InstallerManager {
         void onTaskFinished();
         void onUpdateAvailable(String version, String notes, String downloadUrl);
         void onUpdateNotAvailable();
+        void onInstallStateChanged();
     }
 
     private final Context context;
-    private final Listener listener;
+    // Everything inside the manager reports through the relay; the activity attaches and detaches
+    // as it comes and goes while jobs keep running.
+    private final Listener listener = new Relay();
+    private volatile Listener attached;
+    private String pendingResult;
+    private boolean pendingIsError;
+    private volatile InstallJob activeJob;
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
+    // The I/O probes take a few seconds; kept off the install executor so queued work never waits on them
+    private final ExecutorService calibrationExecutor = Executors.newSingleThreadExecutor();
+    private volatile Future<?> prefetchTask;
+    private volatile boolean prefetchCancelled;
+    private boolean prefetchQueued;
+    // Cleanups the user asked for that are still unlinking
+    private final AtomicInteger cleanups = new AtomicInteger();
+    private final PeerServer peerServer;
+    private final PeerDiscovery peerDiscovery;
     private final ExecutorService executorService;
     private final Handler mainHandler;
     private final SharedPreferences prefs;
+    private final FileReaper reaper;
+    private final PatchAssetCache patchAssets;
+    private final InstallStateIndex installState;
+    private final InstallStateMonitor stateMonitor;
+    private final IoTuner ioTuner;
+    private final MirrorHealth mirrorHealth;
+    private final Downloader downloader = new Downloader(MAX_RECONNECTS, RECONNECT_BASE_DELAY_MS, RECONNECT_MAX_DELAY_MS);
+    // A LAN peer answers at once or is gone: one attempt, quick to give up, and the mirrors take over
+    private final Downloader peerDownloader = new Downloader(PEER_CONNECT_TIMEOUT_MS, 0, 0, 0);
+    private final BroadcastReceiver installResultReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context c, Intent intent) {
+            onInstallResult(intent);
+        }
+    };
     private Future<?> currentTask;
-    private boolean isTaskCancelled = false;
+    private volatile boolean isTaskCancelled = false;
 
     private static final String REMOTE_CONFIG_URL = "https://github.com/heisthecat31/EchoVR-Installer/releases/download/Installer/config.json";
 
-    public String echoVrLegacyUrl = "https://files.echovr.de/r15_26-06-25.apk";
-    public String dataUrl = "https://mia.cdn.echo.taxi/_data.zip";
-    public String enhancedGraphicsUrl = "https://mia.cdn.echo.taxi/questEchoTextureMod_Alpha_v0.1_06-10-25.apk";
-    public String backupDataUrl = "https://files.echovr.de/_data.zip";
-    public String backupLegacyUrl = "https://evr.echo.taxi/r15_26-06-25.apk";
-    public String backupEnhancedGraphicsUrl = "https://files.echovr.de/cat/questEchoTextureMod_Alpha_v0.1_06-10-25.apk";
+    private static final String CONFIG_CACHE_KEY = "config";
+    private static final String RELEASES_CACHE_KEY = "releases_latest";
+    private static final String PATCH_SET_CACHE_KEY = "patchset";
+    private static final long RELEASES_MAX_AGE_MS = 10 * 60 * 1000L;
+
+    private final MetadataClient metadata;
+    private volatile RemoteConfig config;
+    private volatile PatchSet patchSet;
 
     private static final String GITHUB_RELEASES_URL = "https://api.github.com/repos/heisthecat31/EchoVR-Installer/releases/latest";
     private static final String TARGET_DIR = "Android/media/com.readyatdawn.r15/files";
+    private static final String MEDIA_DIR = "Android/media";
     private static final String DATA_FOLDER = "_data";
     private static final String PREFS_NAME = "EchoVRInstallerPrefs";
     private static final String PREF_INSTALLATION_DATE = "installation_date";
-    private static final long TOTAL_FILE_SIZE = 894L * 1024 * 1024;
     private static final long REQUIRED_SPACE_BYTES = 2500L * 1024 * 1024;
-
-    public InstallerManager(Context context, Listener listener) {
-        this.context = context;
-        this.listener = listener;
+    private static final int EXTRACT_CHECKPOINT_ENTRIES = 32;
+    private static final long EXTRACT_CHECKPOINT_MS = 2000;
+    private static final String EXTRACT_JOURNAL = "extract.journal";
+    private static final String PART_SUFFIX = ".part";
+    private static final int MAX_RECONNECTS = 8;
+    private static final long RECONNECT_BASE_DELAY_MS = 1000;
+    private static final long RECONNECT_MAX_DELAY_MS = 30000;
+    private static final long PEER_CONNECT_TIMEOUT_MS = 2000;
+    private static final long PEER_DISCOVERY_WAIT_MS = 1500;
+    // Left free while prefetching so the archive can still be extracted once it is complete
+    private static final long PREFETCH_RESERVE_BYTES = 1600L * 1024 * 1024;
+    private static final long PREFETCH_SPACE_CHECK_BYTES = 64L * 1024 * 1024;
+    private static final String HOLD_JOB = "job";
+    private static final String HOLD_PREFETCH = "prefetch";
+    private static final String PREF_PEER_SHARING = "peer_sharing";
+    // Artifacts other installers can ask us for; the value is the verified length of the cached file
+    private static final String PREF_PEER_READY = "peer_ready_";
+    private static final String PEER_DATA = "data";
+    private static final String PEER_LEGACY = "legacy";
+    private static final String PEER_ENHANCED = "enhanced";
+    private static final String ACTION_INSTALL_RESULT = "com.echovr.installer.INSTALL_RESULT";
+    private static final String SESSION_APK_NAME = "base.apk";
+
+    public InstallerManager(Context context) {
+        this.context = context.getApplicationContext();
         this.executorService = Executors.newSingleThreadExecutor();
         this.mainHandler = new Handler(Looper.getMainLooper());
         this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.metadata = new MetadataClient(context);
+        this.config = loadCachedConfig();
+        this.patchAssets = new PatchAssetCache(context);
+        this.mirrorHealth = new MirrorHealth(this.context);
+        File dataDir = new File(Environment.getExternalStorageDirectory(), TARGET_DIR + "/" + DATA_FOLDER);
+        this.installState = new InstallStateIndex(this.context, dataDir, listener::onInstallStateChanged);
+        this.stateMonitor = new InstallStateMonitor(this.context, new File(Environment.getExternalStorageDirectory(), MEDIA_DIR),
+                dataDir, InstallStateIndex.REQUIRED_DATA_PATHS, installState::refresh);
+        stateMonitor.start();
+        // Our own media folder is on the same volume as the game data and needs no storage permission
+        File[] mediaDirs = this.context.getExternalMediaDirs();
+        this.ioTuner = new IoTuner(this.context, mediaDirs.length > 0 ? mediaDirs[0] : null);
+        calibrateWhenIdle();
+        this.reaper = new FileReaper(new FileReaper.ReapListener() {
+            @Override
+            public void onReapProgress(File tombstone, long deletedCount) {
+                Log.d("InstallerManager", "Cleanup " + tombstone.getName() + ": " + deletedCount + " files deleted");
+                // Leftovers resumed at startup clean up quietly; only what the user asked for is shown, and
+                // only while no job owns the progress dialog
+                if (cleanups.get() == 0) return;
+                mainHandler.post(() -> {
+                    if (activeJob == null) listener.onProgress(-1, "Deleting files: " + deletedCount + " removed");
+                });
+            }
+
+            @Override
+            public void onReapFinished(File tombstone, long deletedCount, boolean complete) {
+                Log.d("InstallerManager", "Cleanup " + tombstone.getName() + (complete ? " finished: " : " incomplete: ") + deletedCount + " files deleted");
+            }
+        });
+        File filesDir = context.getExternalFilesDir(null);
+        reaper.resume(filesDir != null ? filesDir.getParentFile() : null,
+                new File(Environment.getExternalStorageDirectory(), MEDIA_DIR));
+
+        ContextCompat.registerReceiver(this.context, installResultReceiver, new IntentFilter(ACTION_INSTALL_RESULT),
+                ContextCompat.RECEIVER_NOT_EXPORTED);
+
+        this.peerServer = new PeerServer(this::resolvePeerArtifact);
+        this.peerDiscovery = new PeerDiscovery(this.context);
+        if (isPeerSharing()) startPeerServer();
+    }
+
+    // Main thread only. Passing null detaches; a result that arrives while detached is shown on the next attach.
+    public void setListener(Listener l) {
+        attached = l;
+        if (l == null) return;
+        if (activeJob != null) l.onTaskStarted();
+        if (pendingResult != null) {
+            String message = pendingResult;
+            boolean isError = pendingIsError;
+            pendingResult = null;
+            mainHandler.post(() -> {
+                if (isError) listener.onError(message);
+                else listener.onSuccess(message);
+            });
+        }
+    }
+
+    public void removeListener(Listener l) {
+        if (attached == l) attached = null;
     }
 
     public void cancelCurrentTask() {
@@ -86,376 +222,944 @@ public class InstallerManager {
         if (currentTask != null) {
             currentTask.cancel(true);
         }
+        InstallJob.clear(context);
         mainHandler.post(listener::onTaskFinished);
     }
 
     public void fetchRemoteConfig() {
         executorService.execute(() -> {
             try {
-                URL url = new URL(REMOTE_CONFIG_URL);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setConnectTimeout(5000);
-                connection.setReadTimeout(5000);
-                connection.setInstanceFollowRedirects(true);
-                
-                String etag = prefs.getString("config_etag", null);
-                String lastModified = prefs.getString("config_last_modified", null);
-                
-                if (etag != null) {
-                    connection.setRequestProperty("If-None-Match", etag);
-                }
-                if (lastModified != null) {
-                    connection.setRequestProperty("If-Modified-Since", lastModified);
-                }
-
-                int responseCode = connection.getResponseCode();
-                String jsonResponse;
-
-                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
-                    jsonResponse = prefs.getString("config_json_data", "{}");
-                    Log.d("InstallerManager", "Using cached config.json");
-                } else if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_MOVED_TEMP) {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) response.append(line);
-                    reader.close();
-                    jsonResponse = response.toString();
+                MetadataClient.Result result = metadata.fetch(CONFIG_CACHE_KEY, REMOTE_CONFIG_URL, 0);
+                if (result.changed) {
+                    try (Reader reader = result.openReader()) {
+                        config = RemoteConfig.parse(reader);
+                    }
                     Log.d("InstallerManager", "Downloaded fresh config.json");
-
-                    String newEtag = connection.getHeaderField("ETag");
-                    String newLastModified = connection.getHeaderField("Last-Modified");
-                    
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putString("config_json_data", jsonResponse);
-                    if (newEtag != null) editor.putString("config_etag", newEtag);
-                    if (newLastModified != null) editor.putString("config_last_modified", newLastModified);
-                    editor.apply();
                 } else {
-                    jsonResponse = prefs.getString("config_json_data", "{}");
+                    Log.d("InstallerManager", "Using cached config.json");
                 }
+            } catch (IOException e) {
+                Log.w("InstallerManager", "Config refresh failed: " + e.getMessage());
+            }
 
-                JSONObject config = new JSONObject(jsonResponse);
-                if (config.has("legacyUrl")) echoVrLegacyUrl = config.getString("legacyUrl");
-                if (config.has("dataUrl")) dataUrl = config.getString("dataUrl");
-                if (config.has("enhancedUrl")) enhancedGraphicsUrl = config.getString("enhancedUrl");
-                if (config.has("backupLegacyUrl")) backupLegacyUrl = config.getString("backupLegacyUrl");
-                if (config.has("backupDataUrl")) backupDataUrl = config.getString("backupDataUrl");
-                if (config.has("backupEnhancedUrl")) backupEnhancedGraphicsUrl = config.getString("backupEnhancedUrl");
-
-            } catch (Exception ignored) { 
+            String patchSetUrl = config.patchSetUrl;
+            if (patchSetUrl != null) {
                 try {
-                    String cached = prefs.getString("config_json_data", null);
-                    if (cached != null) {
-                        JSONObject config = new JSONObject(cached);
-                        if (config.has("legacyUrl")) echoVrLegacyUrl = config.getString("legacyUrl");
-                        if (config.has("dataUrl")) dataUrl = config.getString("dataUrl");
-                        if (config.has("enhancedUrl")) enhancedGraphicsUrl = config.getString("enhancedUrl");
-                        if (config.has("backupLegacyUrl")) backupLegacyUrl = config.getString("backupLegacyUrl");
-                        if (config.has("backupDataUrl")) backupDataUrl = config.getString("backupDataUrl");
-                        if (config.has("backupEnhancedUrl")) backupEnhancedGraphicsUrl = config.getString("backupEnhancedUrl");
+                    MetadataClient.Result result = metadata.fetch(PATCH_SET_CACHE_KEY, patchSetUrl, 0);
+                    if (result.changed || patchSet == null) {
+                        patchSet = PatchSet.parse(readFully(result.body));
+                        Log.d("InstallerManager", "Patch set " + patchSet.id + " v" + patchSet.version + " ready");
                     }
-                } catch (Exception e) {}
+                } catch (IOException e) {
+                    Log.w("InstallerManager", "Patch set refresh failed: " + e.getMessage());
+                }
             }
         });
     }
 
+    // Remote patch set if config.json names one and it parsed, otherwise the bundled default.
+    private PatchSet currentPatchSet() throws IOException {
+        PatchSet set = patchSet;
+        if (set != null) return set;
+
+        File cached = config.patchSetUrl != null ? metadata.cached(PATCH_SET_CACHE_KEY) : null;
+        if (cached != null) {
+            try {
+                set = PatchSet.parse(readFully(cached));
+            } catch (IOException e) {
+                Log.w("InstallerManager", "Cached patch set unusable: " + e.getMessage());
+            }
+        }
+        if (set == null) set = PatchSet.builtin(context);
+        patchSet = set;
+        return set;
+    }
+
+    private static String readFully(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int off = 0;
+            int len;
+            while (off < data.length && (len = in.read(data, off, data.length - off)) > 0) off += len;
+            return new String(data, 0, off, StandardCharsets.UTF_8);
+        }
+    }
+
+    public RemoteConfig getConfig() {
+        return config;
+    }
+
+    // Runs synchronously at construction so the URLs are right before the first tap, even offline.
+    private RemoteConfig loadCachedConfig() {
+        String legacyJson = prefs.getString("config_json_data", null);
+        if (legacyJson != null) {
+            try {
+                metadata.seed(CONFIG_CACHE_KEY, legacyJson);
+            } catch (IOException ignored) {}
+            prefs.edit().remove("config_json_data").remove("config_etag").remove("config_last_modified").apply();
+        }
+
+        File cached = metadata.cached(CONFIG_CACHE_KEY);
+        if (cached == null) return RemoteConfig.DEFAULTS;
+        try (Reader reader = new InputStreamReader(new FileInputStream(cached), StandardCharsets.UTF_8)) {
+            return RemoteConfig.parse(reader);
+        } catch (IOException e) {
+            Log.w("InstallerManager", "Cached config unreadable, using defaults");
+            return RemoteConfig.DEFAULTS;
+        }
+    }
+
     public void installLegacyEchoVr() {
-        downloadAndInstallApkWithBackup(echoVrLegacyUrl, backupLegacyUrl, "Legacy Echo VR", "echo_vr_legacy.apk");
+        RemoteConfig c = config;
+        startJob(new InstallJob(InstallJob.Kind.APK, "Legacy Echo VR", c.legacyMirrors, "apk", "echo_vr_legacy.apk",
+                PEER_LEGACY, c.legacySha256));
     }
 
     public void installEnhancedGraphics() {
-        downloadAndInstallApkWithBackup(enhancedGraphicsUrl, backupEnhancedGraphicsUrl, "Enhanced Graphics", "echo_vr_enhanced.apk");
+        RemoteConfig c = config;
+        startJob(new InstallJob(InstallJob.Kind.APK, "Enhanced Graphics", c.enhancedMirrors, "apk", "echo_vr_enhanced.apk",
+                PEER_ENHANCED, c.enhancedSha256));
     }
 
     public void installCustomApk(String url) {
-        startApkDownload(url, "Custom APK", false, null, "echo_vr_custom.apk");
+        startJob(new InstallJob(InstallJob.Kind.APK, "Custom APK", Collections.singletonList(url), "apk", "echo_vr_custom.apk", null, null));
     }
 
-    // --- NEW METHOD FOR BETTER GRAPHICS PATCHING ---
     public void installBetterGraphics(String apkUrl) {
-        if (!hasEnoughSpace()) return;
-        isTaskCancelled = false;
-        mainHandler.post(listener::onTaskStarted);
+        startJob(new InstallJob(InstallJob.Kind.BETTER_GRAPHICS, "Base APK", Collections.singletonList(apkUrl), "cache", "base_echo.apk", null, null));
+    }
 
-        currentTask = executorService.submit(() -> {
-            try {
-                // 1. Download Base APK
-                mainHandler.post(() -> listener.onProgress(0, "Downloading base APK..."));
-                // Download to cache first
-                File baseApk = downloadFile(apkUrl, "cache", "base_echo.apk", "Base APK", false);
-                
-                if (baseApk == null || isTaskCancelled) {
-                    throw new Exception("Download failed or cancelled");
-                }
+    public void installGameData() {
+        RemoteConfig c = config;
+        startJob(new InstallJob(InstallJob.Kind.GAME_DATA, "Game Data", c.dataMirrors, "downloads", "game_data.zip",
+                PEER_DATA, c.dataSha256));
+    }
 
-                // 2. Patch, Align, and Sign
-                // We use a callback to pipe the status updates to the UI
-                mainHandler.post(() -> listener.onProgress(-1, "Starting Patch Process..."));
-                
-                File finalApk = ApkPatcher.patchApk(context, baseApk, true, status -> 
-                    mainHandler.post(() -> listener.onProgress(-1, status))
-                );
+    public void downloadAndInstallUpdate(String url, String version) {
+        startJob(new InstallJob(InstallJob.Kind.UPDATE, "Update " + version, Collections.singletonList(url), "updates", "update.apk", null, null));
+    }
 
-                mainHandler.post(() -> {
-                    listener.onTaskFinished();
-                    if (!isTaskCancelled && finalApk.exists()) {
-                        launchApkInstaller(finalApk);
-                        listener.onSuccess("Patching complete! Prompting install...");
-                    } else if (!isTaskCancelled) {
-                        listener.onError("Patching failed to produce output.");
-                    }
-                });
+    // Installs from a file the user already has, e.g. on USB storage or a network share, skipping the
+    // download stage. content:// documents are read in place; nothing is copied into app storage.
+    public void importGameData(Uri source) {
+        startImport(InstallJob.Kind.GAME_DATA, "Imported Game Data", source, config.dataSha256);
+    }
 
-            } catch (Exception e) {
-                e.printStackTrace();
-                mainHandler.post(() -> {
-                    listener.onTaskFinished();
-                    listener.onError("Error: " + e.getMessage());
-                });
+    public void importApk(Uri source) {
+        startImport(InstallJob.Kind.APK, "Imported APK", source, null);
+    }
+
+    private void startImport(InstallJob.Kind kind, String name, Uri source, String sha256) {
+        String location = "file".equals(source.getScheme()) ? source.getPath() : source.toString();
+        if (InstallSource.isDocument(location)) {
+            // Lets a job interrupted by a process kill reopen the document after restart
+            try {
+                context.getContentResolver().takePersistableUriPermission(source, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch (SecurityException e) {
+                Log.w("InstallerManager", "No persistable access to " + source);
             }
-        });
+        }
+        InstallJob job = new InstallJob(kind, name, Collections.singletonList(location), "import", source.getLastPathSegment(), null, sha256);
+        job.imported = true;
+        job.stage = InstallJob.Stage.DOWNLOADED;
+        job.artifact = location;
+        startJob(job);
     }
-    // -----------------------------------------------
 
-    private void downloadAndInstallApkWithBackup(String primaryUrl, String backupUrl, String name, String saveFileName) {
-        startApkDownload(primaryUrl, name, true, backupUrl, saveFileName);
+    // Picks up a job left behind by a killed process. Returns false if there is nothing to resume.
+    public boolean resumePendingJob() {
+        if (activeJob != null) return true;
+        InstallJob job = InstallJob.load(context);
+        if (job == null) return false;
+        Log.d("InstallerManager", "Resuming " + job.name + " from " + job.stage);
+        if (!job.isResumable()) job.restart(context);
+        runJob(job);
+        return true;
     }
 
-    private void startApkDownload(String url, String name, boolean useBackup, String backupUrl, String saveFileName) {
+    private void startJob(InstallJob job) {
+        if (activeJob != null) {
+            listener.onError("Another install is still running.");
+            return;
+        }
         if (!hasEnoughSpace()) return;
+        job.save(context);
+        runJob(job);
+    }
+
+    private void runJob(InstallJob job) {
         isTaskCancelled = false;
+        activeJob = job;
+        InstallService.start(context, HOLD_JOB);
         mainHandler.post(listener::onTaskStarted);
 
         currentTask = executorService.submit(() -> {
-            File apkFile = downloadFile(url, "apk", saveFileName, name, false);
+            // The prefetch writes the same file game data jobs download to; whatever it got is resumed
+            stopPrefetch();
+            // Peers are only looked for while a job that could download from one is running
+            boolean lan = job.peerKey != null && job.sha256 != null;
+            if (lan) peerDiscovery.startDiscovery();
+            String error = null;
+            try {
+                switch (job.kind) {
+                    case GAME_DATA: error = runGameDataJob(job); break;
+                    case UPDATE: error = runUpdateJob(job); break;
+                    default: error = runApkJob(job);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                error = (job.kind == InstallJob.Kind.APK ? "Patching Error: " : "Error: ") + e.getMessage();
+            } finally {
+                if (lan) peerDiscovery.stopDiscovery();
+            }
+
+            // Anything but a process kill ends the job; only a kill leaves the checkpoint behind
+            InstallJob.clear(context);
+            String failure = error;
+            installState.refresh();
+            // The user is about to spend a while in the system installer; use the idle network
+            boolean prefetch = failure == null && (job.kind == InstallJob.Kind.APK || job.kind == InstallJob.Kind.BETTER_GRAPHICS)
+                    && canPrefetch();
+            mainHandler.post(() -> {
+                activeJob = null;
+                // Taken before the job's hold is let go: by now the app is usually in the background,
+                // where only an app that is already running a foreground service may start one
+                if (prefetch) startPrefetch();
+                InstallService.stop(context, HOLD_JOB);
+                listener.onTaskFinished();
+                if (failure != null && !isTaskCancelled) listener.onError(failure);
+                // A run that didn't match its calibration leaves it stale
+                calibrateWhenIdle();
+            });
+            Log.d("InstallerManager", "Buffer pool: " + BufferPool.stats());
+        });
+    }
 
-            if (apkFile == null && useBackup && !isTaskCancelled && backupUrl != null) {
-                mainHandler.post(() -> listener.onProgress(0, "First link failed, trying backup..."));
-                apkFile = downloadFile(backupUrl, "apk", saveFileName, name, true);
+    // Each stage runner returns an error message, or null on success or cancellation.
+    private String runApkJob(InstallJob job) throws Exception {
+        boolean betterGraphics = job.kind == InstallJob.Kind.BETTER_GRAPHICS;
+        // The patch files are fetched (or revalidated) alongside the base APK download
+        Future<PatchAssetCache.Assets> assets = betterGraphics && job.stage.compareTo(InstallJob.Stage.PATCHED) < 0
+                ? patchAssets.fetchAsync() : null;
+        try {
+            if (job.stage == InstallJob.Stage.QUEUED) {
+                File apkFile = downloadDelta(job);
+                if (apkFile == null && !isTaskCancelled) apkFile = downloadFromMirrors(job, "Download failed, trying another mirror...");
+                if (isTaskCancelled) return null;
+                if (apkFile == null) {
+                    return betterGraphics ? "Error: Download failed or cancelled" : job.name + " download failed from all sources.";
+                }
+                job.advance(context, InstallJob.Stage.DOWNLOADED, apkFile);
             }
 
-            if (apkFile != null && !isTaskCancelled) {
-                try {
-                    mainHandler.post(() -> listener.onProgress(-1, "Applying Paths Patch..."));
-                    File patchedApk = ApkPatcher.patchApk(context, apkFile, false, status -> 
-                        mainHandler.post(() -> listener.onProgress(-1, status))
+            if (job.stage == InstallJob.Stage.DOWNLOADED) {
+                PatchAssetCache.Assets files = null;
+                if (assets != null) {
+                    mainHandler.post(() -> listener.onProgress(-1, "Waiting for Better Graphics files..."));
+                    try {
+                        files = assets.get();
+                    } catch (ExecutionException e) {
+                        return "Error: Better Graphics files unavailable: " + e.getCause().getMessage();
+                    }
+                }
+                String rejected = verifyImport(job);
+                if (rejected != null) return rejected;
+                mainHandler.post(() -> listener.onProgress(-1, betterGraphics ? "Starting Patch Process..." : "Applying Paths Patch..."));
+                File aligned = new File(context.getExternalCacheDir(), "job_aligned.apk");
+                try (InstallSource source = InstallSource.open(context, job.artifact)) {
+                    ApkPatcher.patchAndAlign(context, source.file, currentPatchSet(), files, aligned, status ->
+                            mainHandler.post(() -> listener.onProgress(-1, status))
                     );
-                    mainHandler.post(() -> {
-                        listener.onTaskFinished();
-                        if (!isTaskCancelled && patchedApk.exists()) {
-                            launchApkInstaller(patchedApk);
-                        } else if (!isTaskCancelled) {
-                            listener.onError("Patching failed to produce output.");
-                        }
-                    });
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    mainHandler.post(() -> {
-                        listener.onTaskFinished();
-                        if (!isTaskCancelled) listener.onError("Patching Error: " + e.getMessage());
-                    });
                 }
-            } else {
-                mainHandler.post(() -> {
-                    listener.onTaskFinished();
-                    if (!isTaskCancelled) listener.onError(name + " download failed from all sources.");
-                });
+                if (isTaskCancelled) return null;
+                job.advance(context, InstallJob.Stage.PATCHED, aligned);
             }
-        });
-    }
+        } finally {
+            if (assets != null) assets.cancel(true);
+        }
 
-    public void installGameData() {
-        if (!hasEnoughSpace()) return;
-        isTaskCancelled = false;
-        mainHandler.post(listener::onTaskStarted);
+        if (job.stage == InstallJob.Stage.PATCHED) {
+            File aligned = job.artifactFile();
+            ApkPatcher.PatcherListener status = message -> mainHandler.post(() -> listener.onProgress(-1, message));
+            if (installViaSession(aligned, status)) {
+                aligned.delete();
+                return null;
+            }
+            File finalApk = ApkPatcher.signPatched(context, aligned, betterGraphics, status);
+            aligned.delete();
+            if (isTaskCancelled) return null;
+            job.advance(context, InstallJob.Stage.SIGNED, finalApk);
+        }
 
-        currentTask = executorService.submit(() -> {
-            File zipFile = downloadFile(dataUrl, "downloads", "game_data.zip", "Game Data", false);
+        File finalApk = job.artifactFile();
+        if (finalApk == null || !finalApk.exists()) return "Patching failed to produce output.";
+        mainHandler.post(() -> {
+            launchApkInstaller(finalApk);
+            if (betterGraphics) listener.onSuccess("Patching complete! Prompting install...");
+        });
+        return null;
+    }
 
-            if (zipFile == null && !isTaskCancelled) {
-                mainHandler.post(() -> listener.onProgress(0, "Primary failed, trying backup..."));
-                zipFile = downloadFile(backupDataUrl, "downloads", "game_data.zip", "Game Data", true);
-            }
+    private String runUpdateJob(InstallJob job) {
+        if (job.stage == InstallJob.Stage.QUEUED) {
+            File apk = downloadFile(job.mirrors.get(0), job.dirType, job.fileName, job.name, false);
+            if (isTaskCancelled) return null;
+            if (apk == null) return "Update download failed";
+            job.advance(context, InstallJob.Stage.SIGNED, apk);
+        }
+        File apk = job.artifactFile();
+        mainHandler.post(() -> launchApkInstaller(apk));
+        return null;
+    }
 
-            if (zipFile == null || isTaskCancelled) {
-                mainHandler.post(() -> {
-                    listener.onTaskFinished();
-                    if (!isTaskCancelled) listener.onError("Data download failed.");
-                });
-                return;
-            }
+    private String runGameDataJob(InstallJob job) throws IOException {
+        if (job.stage == InstallJob.Stage.QUEUED) {
+            File zipFile = downloadFromMirrors(job, "Mirror failed, trying the next one...");
+            if (isTaskCancelled) return null;
+            if (zipFile == null) return "Data download failed.";
+            job.advance(context, InstallJob.Stage.DOWNLOADED, zipFile);
+        }
 
+        if (job.stage == InstallJob.Stage.DOWNLOADED) {
+            String rejected = verifyImport(job);
+            if (rejected != null) return rejected;
+        }
+        if (job.stage == InstallJob.Stage.DOWNLOADED || job.stage == InstallJob.Stage.EXTRACTING) {
             mainHandler.post(() -> listener.onProgress(-1, "Extracting data..."));
-            boolean success = extractZipFile(zipFile);
+            if (!extractZipFile(job)) return isTaskCancelled ? null : "Extraction failed.";
+        }
+
+        if (!verifyDataInstallation()) return "Extraction incomplete - files missing.";
+        String date = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault()).format(new Date());
+        prefs.edit().putString(PREF_INSTALLATION_DATE, date).apply();
+        mainHandler.post(() -> listener.onSuccess("Installation complete"));
+        return null;
+    }
 
+    // Starts pulling _data.zip into the file installGameData downloads to, while the user is busy with
+    // the system installer or the permission screens. It only runs on an unmetered network with room to
+    // spare, stops quietly on any failure, and a game data job picks up from whatever reached the disk.
+    // Main thread only; the network and free space are checked on the prefetch thread.
+    public void prefetchGameData() {
+        Future<?> running = prefetchTask;
+        if (prefetchQueued || activeJob != null || (running != null && !running.isDone())) return;
+        InstallStateIndex.State state = installState.get();
+        if (!state.isKnown() || state.dataInstalled) return;
+        prefetchQueued = true;
+        prefetchExecutor.execute(() -> {
+            boolean ok = canPrefetch();
             mainHandler.post(() -> {
-                listener.onTaskFinished();
-                if (isTaskCancelled) return;
-                if (success) {
-                    if (verifyDataInstallation()) {
-                        String date = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault()).format(new Date());
-                        prefs.edit().putString(PREF_INSTALLATION_DATE, date).apply();
-                        listener.onSuccess("Installation complete");
-                    } else {
-                        listener.onError("Extraction incomplete - files missing.");
-                    }
-                } else {
-                    listener.onError("Extraction failed.");
-                }
+                prefetchQueued = false;
+                if (ok) startPrefetch();
             });
         });
     }
 
-    private File downloadFile(String urlString, String dirType, String fileName, String logName, boolean isBackup) {
-        HttpURLConnection connection = null;
-        InputStream input = null;
-        OutputStream output = null;
-
+    // Main thread only, once canPrefetch() has passed.
+    private void startPrefetch() {
+        Future<?> running = prefetchTask;
+        if (activeJob != null || (running != null && !running.isDone())) return;
+        if (installState.get().dataInstalled) return;
         try {
-            File dir = dirType.equals("cache") ? context.getExternalCacheDir() : context.getExternalFilesDir(dirType);
-            if (dir == null) return null;
-            if (!dir.exists()) dir.mkdirs();
+            InstallService.start(context, HOLD_PREFETCH);
+        } catch (IllegalStateException e) {
+            // Refused in the background; the next checkState tries again
+            Log.w("InstallerManager", "Prefetch not started: " + e.getMessage());
+            InstallService.stop(context, HOLD_PREFETCH);
+            return;
+        }
 
-            File file = new File(dir, fileName);
-            long downloaded = 0;
-            if (file.exists()) downloaded = file.length();
+        RemoteConfig c = config;
+        prefetchCancelled = false;
+        prefetchTask = prefetchExecutor.submit(() -> {
+            // Only the best mirror: a prefetch gives up rather than work through the list
+            String url = mirrorHealth.order(c.dataMirrors).get(0);
+            File zip = downloadFile(url, "downloads", "game_data.zip", "Game Data", false, true, c.dataSha256);
+            Log.d("InstallerManager", zip != null ? "Game data prefetched" : "Game data prefetch stopped");
+            mainHandler.post(() -> InstallService.stop(context, HOLD_PREFETCH));
+        });
+    }
 
-            URL url = new URL(urlString);
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestProperty("User-Agent", "Mozilla/5.0");
+    private void calibrateWhenIdle() {
+        calibrationExecutor.execute(() -> {
+            if (activeJob == null) ioTuner.calibrateIfStale();
+        });
+    }
 
-            if (downloaded > 0) {
-                connection.setRequestProperty("Range", "bytes=" + downloaded + "-");
-            }
+    public void cancelPrefetch() {
+        prefetchCancelled = true;
+    }
 
-            connection.setConnectTimeout(30000);
-            connection.setReadTimeout(30000);
-            connection.connect();
+    // Blocks the calling worker until the prefetch has let go of the download file.
+    private void stopPrefetch() {
+        Future<?> task = prefetchTask;
+        if (task == null || task.isDone()) return;
+        prefetchCancelled = true;
+        try {
+            task.get();
+        } catch (Exception ignored) {}
+    }
 
-            int responseCode = connection.getResponseCode();
+    private boolean canPrefetch() {
+        ConnectivityManager cm = context.getSystemService(ConnectivityManager.class);
+        if (cm == null || cm.isActiveNetworkMetered()) return false;
+        return availableBytes() >= REQUIRED_SPACE_BYTES;
+    }
 
-            if (responseCode == 416 && downloaded > 0) {
-                connection.disconnect();
-                return file;
-            }
+    // Imports skip the download stage, so they get the hash check downloads get in downloadFromMirrors.
+    private String verifyImport(InstallJob job) throws IOException {
+        if (!job.imported || job.sha256 == null) return null;
+        try (InstallSource source = InstallSource.open(context, job.artifact)) {
+            if (isTaskCancelled || matchesSha256(source.file, job.sha256)) return null;
+        }
+        return "The selected file doesn't match the expected SHA-256. It may be corrupt or a different version.";
+    }
 
-            boolean isResuming = (responseCode == HttpURLConnection.HTTP_PARTIAL);
+    // LAN peers first when the artifact's hash is known, then every mirror, best first by MirrorHealth.
+    // Each mirror continues what the last one left when the hash says they serve the same file. Anything
+    // that fails the hash is discarded; a verified file is offered to peers in turn.
+    private File downloadFromMirrors(InstallJob job, String nextMirrorMessage) {
+        File file = downloadFromPeers(job);
+        List<String> mirrors = mirrorHealth.order(job.mirrors);
+        for (int i = 0; i < mirrors.size() && file == null && !isTaskCancelled; i++) {
+            if (i > 0) mainHandler.post(() -> listener.onProgress(0, nextMirrorMessage));
+            file = downloadFile(mirrors.get(i), job.dirType, job.fileName, job.name, i > 0, false, job.sha256);
+        }
+        if (file == null || job.sha256 == null) return file;
+
+        if (!matchesSha256(file, job.sha256)) {
+            Log.w("InstallerManager", job.fileName + " failed SHA-256 check");
+            Downloader.discard(file);
+            return null;
+        }
+        if (job.peerKey != null) prefs.edit().putLong(PREF_PEER_READY + job.peerKey, file.length()).apply();
+        return file;
+    }
 
-            if (responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_PARTIAL) {
-                if (downloaded > 0) {
-                    file.delete();
-                    downloaded = 0;
-                    connection.disconnect();
-                    connection = (HttpURLConnection) url.openConnection();
-                    connection.connect();
-                    responseCode = connection.getResponseCode();
+    // A published delta rebuilds the APK from ones already on the device for a fraction of the download.
+    // The result is unsigned and not the published file, so it is kept under its own name and never
+    // offered to peers. Anything that goes wrong falls back to the full download.
+    private File downloadDelta(InstallJob job) {
+        RemoteConfig c = config;
+        List<RemoteConfig.Delta> deltas = PEER_LEGACY.equals(job.peerKey) ? c.legacyDeltas
+                : PEER_ENHANCED.equals(job.peerKey) ? c.enhancedDeltas : Collections.<RemoteConfig.Delta>emptyList();
+        File dir = context.getExternalFilesDir(job.dirType);
+        if (deltas.isEmpty() || dir == null) return null;
+        File rebuilt = new File(dir, "rebuilt_" + job.fileName);
+        List<File> bases = localApks(rebuilt);
+        if (bases.isEmpty()) return null;
+
+        ApkPatcher.PatcherListener status = message -> mainHandler.post(() -> listener.onProgress(-1, message));
+        for (RemoteConfig.Delta delta : deltas) {
+            if (isTaskCancelled) return null;
+            File patch = downloadFile(delta.url, job.dirType, job.fileName + ".delta", job.name + " delta", false, false, delta.sha256);
+            if (patch == null) continue;
+            try {
+                if (delta.sha256 != null && !matchesSha256(patch, delta.sha256)) {
+                    Log.w("InstallerManager", "Delta " + delta.url + " failed SHA-256 check");
+                    continue;
                 }
-                if (responseCode != HttpURLConnection.HTTP_OK) return null;
+                ApkDelta.apply(patch, bases, rebuilt, context.getExternalCacheDir(), status);
+                return rebuilt;
+            } catch (ApkDelta.MissingBase e) {
+                Log.d("InstallerManager", "Delta " + delta.url + " not usable here: " + e.getMessage());
+            } catch (IOException e) {
+                Log.w("InstallerManager", "Delta " + delta.url + " failed", e);
+            } finally {
+                Downloader.discard(patch);
+            }
+        }
+        return null;
+    }
+
+    // APKs a delta may draw entries from: earlier downloads and the installed game.
+    private List<File> localApks(File exclude) {
+        List<File> apks = new ArrayList<>();
+        File apkDir = context.getExternalFilesDir("apk");
+        File[] downloaded = apkDir != null ? apkDir.listFiles() : null;
+        if (downloaded != null) {
+            for (File file : downloaded) {
+                if (file.isFile() && file.getName().endsWith(".apk") && !file.equals(exclude)) apks.add(file);
             }
+        }
+        File cached = new File(context.getExternalCacheDir(), "base_echo.apk");
+        if (cached.isFile()) apks.add(cached);
+        try {
+            apks.add(new File(context.getPackageManager().getApplicationInfo(InstallStateIndex.GAME_PACKAGE, 0).sourceDir));
+        } catch (PackageManager.NameNotFoundException ignored) {
+            // Not installed
+        }
+        return apks;
+    }
 
-            if (!isResuming && downloaded > 0) {
-                file.delete();
-                downloaded = 0;
+    private File downloadFromPeers(InstallJob job) {
+        if (job.peerKey == null || job.sha256 == null) return null;
+        List<String> peers;
+        try {
+            peers = peerDiscovery.awaitPeers(PEER_DISCOVERY_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        for (String peer : peers) {
+            if (isTaskCancelled) return null;
+            mainHandler.post(() -> listener.onProgress(0, "Found a nearby installer, downloading over LAN..."));
+            File file = downloadFile(peerDownloader, peer + PeerServer.PATH_PREFIX + job.peerKey, job.dirType, job.fileName,
+                    job.name + " (LAN)", false, false, job.sha256);
+            if (file == null) {
+                if (isTaskCancelled) return null;
+                // Unreachable or dropped out; it isn't tried again unless discovery finds it anew
+                peerDiscovery.forget(peer);
+                continue;
             }
+            if (matchesSha256(file, job.sha256)) return file;
+            Log.w("InstallerManager", "Peer " + peer + " served a bad " + job.peerKey + ", dropping it");
+            Downloader.discard(file);
+            peerDiscovery.forget(peer);
+        }
+        return null;
+    }
 
-            int contentLength = connection.getContentLength();
-            long totalFileSize = (contentLength > 0) ? (contentLength + downloaded) : (fileName.contains("zip") ? TOTAL_FILE_SIZE : 0);
+    // Uses the digest saved while downloading, so a finished download only re-reads the bytes written
+    // after the last save. Files with no saved state (imports) get one full pass.
+    private boolean matchesSha256(File file, String expected) {
+        mainHandler.post(() -> listener.onProgress(-1, "Verifying " + file.getName() + "..."));
+        try {
+            return Sha256.resume(Downloader.digestStateFile(file), file).hex().equals(expected);
+        } catch (IOException e) {
+            Log.e("InstallerManager", "Hashing failed", e);
+            return false;
+        }
+    }
 
-            input = connection.getInputStream();
-            output = new FileOutputStream(file, isResuming);
+    public boolean isPeerSharing() {
+        return prefs.getBoolean(PREF_PEER_SHARING, false);
+    }
 
-            byte[] buffer = new byte[32768];
-            long totalDownloaded = downloaded;
-            int bytesRead;
+    // With sharing on, verified downloads (and the game data archive after extraction) are kept and
+    // served to other installers on the same network.
+    public void setPeerSharing(boolean enabled) {
+        prefs.edit().putBoolean(PREF_PEER_SHARING, enabled).apply();
+        if (enabled) {
+            startPeerServer();
+        } else {
+            peerDiscovery.unregister();
+            peerServer.stop();
+        }
+    }
 
-            String prefix = isBackup ? "Backup " + logName : logName;
+    private void startPeerServer() {
+        try {
+            int port = peerServer.start(new InetSocketAddress(0));
+            peerDiscovery.register(port);
+        } catch (IOException e) {
+            Log.w("InstallerManager", "LAN sharing unavailable: " + e.getMessage());
+        }
+    }
 
-            while ((bytesRead = input.read(buffer)) != -1) {
-                if (isTaskCancelled) {
-                    output.close();
-                    input.close();
-                    return null;
-                }
-                totalDownloaded += bytesRead;
-                output.write(buffer, 0, bytesRead);
+    // Only files whose verified length is on record are served, so partial downloads never leak out.
+    private File resolvePeerArtifact(String key) {
+        File file;
+        switch (key) {
+            case PEER_DATA: file = new File(context.getExternalFilesDir("downloads"), "game_data.zip"); break;
+            case PEER_LEGACY: file = new File(context.getExternalFilesDir("apk"), "echo_vr_legacy.apk"); break;
+            case PEER_ENHANCED: file = new File(context.getExternalFilesDir("apk"), "echo_vr_enhanced.apk"); break;
+            default: return null;
+        }
+        long verified = prefs.getLong(PREF_PEER_READY + key, -1);
+        return file.exists() && file.length() == verified ? file : null;
+    }
 
-                if (totalFileSize > 0) {
-                    int progress = (int) ((totalDownloaded * 100) / totalFileSize);
-                    long mb = totalDownloaded / (1024 * 1024);
-                    mainHandler.post(() -> listener.onProgress(progress, "Downloading " + prefix + ": " + progress + "% (" + mb + "MB)"));
-                }
+    private File downloadFile(String urlString, String dirType, String fileName, String logName, boolean isBackup) {
+        return downloadFile(urlString, dirType, fileName, logName, isBackup, false, null);
+    }
+
+    // A speculative download reports to the notification only and gives up when prefetchCancelled is set
+    // or free space runs down to PREFETCH_RESERVE_BYTES. expectedSha256 may be null.
+    private File downloadFile(String urlString, String dirType, String fileName, String logName, boolean isBackup,
+                              boolean speculative, String expectedSha256) {
+        return downloadFile(downloader, urlString, dirType, fileName, logName, isBackup, speculative, expectedSha256);
+    }
+
+    private File downloadFile(Downloader via, String urlString, String dirType, String fileName, String logName, boolean isBackup,
+                              boolean speculative, String expectedSha256) {
+        File dir = dirType.equals("cache") ? context.getExternalCacheDir() : context.getExternalFilesDir(dirType);
+        if (dir == null) return null;
+        if (!dir.exists()) dir.mkdirs();
+
+        String prefix = isBackup ? "Backup " + logName : logName;
+        File target = new File(dir, fileName);
+        long startLength = target.length();
+        long started = System.nanoTime();
+        long[] firstByteMillis = {-1};
+        Downloader.Listener downloadListener = new Downloader.Listener() {
+            private long nextSpaceCheck = PREFETCH_SPACE_CHECK_BYTES;
+            private volatile boolean lowSpace;
+
+            @Override
+            public boolean isCancelled() {
+                return lowSpace || (speculative ? prefetchCancelled : isTaskCancelled);
             }
 
-            output.flush();
-            return (file.exists() && file.length() > 0) ? file : null;
+            @Override
+            public void onResponse(long waitMillis) {
+                if (firstByteMillis[0] < 0) firstByteMillis[0] = waitMillis;
+            }
 
-        } catch (Exception e) {
-            Log.e("InstallerManager", "Download error: " + e.getMessage());
-            return null;
-        } finally {
-            try {
-                if (output != null) output.close();
-                if (input != null) input.close();
-            } catch (IOException ignored) {}
-            if (connection != null) connection.disconnect();
+            @Override
+            public void onProgress(long done, long total) {
+                if (speculative && done >= nextSpaceCheck) {
+                    if (availableBytes() < PREFETCH_RESERVE_BYTES) {
+                        Log.d("InstallerManager", "Prefetch stopped, storage low");
+                        lowSpace = true;
+                    }
+                    nextSpaceCheck = done + PREFETCH_SPACE_CHECK_BYTES;
+                }
+
+                // Without a length from the server the bar is indeterminate and only the MB count moves
+                int progress = total > 0 ? (int) ((done * 100) / total) : -1;
+                long mb = done / (1024 * 1024);
+                String amount = progress >= 0 ? progress + "% (" + mb + "MB)" : mb + "MB";
+                if (speculative) {
+                    mainHandler.post(() -> InstallService.update(progress, "Prefetching game data: " + amount));
+                } else {
+                    mainHandler.post(() -> listener.onProgress(progress, "Downloading " + prefix + ": " + amount));
+                }
+            }
+        };
+        File file = via.download(urlString, target, expectedSha256, downloadListener);
+        long elapsed = System.nanoTime() - started;
+        if (file != null) {
+            ioTuner.observeNetwork(file.length() - startLength, elapsed);
+            mirrorHealth.recordSuccess(urlString, file.length() - startLength, elapsed, firstByteMillis[0]);
+        } else if (!downloadListener.isCancelled()) {
+            mirrorHealth.recordFailure(urlString, firstByteMillis[0]);
         }
+        return file;
     }
 
-    private boolean extractZipFile(File zipFile) {
+    // Entries are indexed in central directory order, so the journal names the same entry on every run.
+    // Entries it records whose file is still there at full size are skipped; the rest are written to a
+    // temp file and renamed into place, so a file under its real name is always complete. IoTuner
+    // decides how many are extracted at once; each worker has its own channel and inflater. Stored
+    // entries are copied channel to channel with transferTo; only deflated ones pass through the heap.
+    private boolean extractZipFile(InstallJob job) {
         File targetDir = new File(Environment.getExternalStorageDirectory(), TARGET_DIR);
         if (!targetDir.exists() && !targetDir.mkdirs()) return false;
 
-        try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(zipFile)))) {
-            ZipEntry entry;
-            byte[] buffer = new byte[32768];
+        ExecutorService pool = null;
+        ExtractJournal journal = null;
+        try (InstallSource source = InstallSource.open(context, job.artifact);
+             FileChannel zip = new FileInputStream(source.file).getChannel()) {
+            List<ZipIndex.Entry> entries = ZipIndex.read(zip);
+            if (job.stage != InstallJob.Stage.EXTRACTING) {
+                job.stage = InstallJob.Stage.EXTRACTING;
+                job.save(context);
+            }
+            journal = ExtractJournal.open(new File(context.getFilesDir(), EXTRACT_JOURNAL), job.artifact, source.file, entries.size());
+            long lastCheckpoint = SystemClock.elapsedRealtime();
+            int lastPercent = -1;
+
+            // Sizes are 64-bit and known up front, so progress follows bytes and a data pack that
+            // can't fit is refused before anything is written
+            long totalBytes = 0;
+            long doneBytes = 0;
+            int[] pending = new int[entries.size()];
+            int pendingCount = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                ZipIndex.Entry entry = entries.get(i);
+                totalBytes += entry.size;
+                if (journal.isDone(i) && isExtracted(targetDir, entry)) {
+                    doneBytes += entry.size;
+                } else {
+                    pending[pendingCount++] = i;
+                }
+            }
+            if (totalBytes - doneBytes > targetDir.getUsableSpace()) {
+                Log.e("InstallerManager", "Extraction needs " + (totalBytes - doneBytes) + " bytes, " + targetDir.getUsableSpace() + " free");
+                return false;
+            }
+            int skipped = entries.size() - pendingCount;
+            if (skipped > 0) Log.d("InstallerManager", "Journal: " + skipped + " of " + entries.size() + " entries already extracted");
+
+            int workers = Math.max(1, Math.min(IoTuner.settings().extractWorkers, pendingCount));
+            AtomicInteger next = new AtomicInteger();
+            BlockingQueue<Integer> finished = new LinkedBlockingQueue<>();
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            pool = Executors.newFixedThreadPool(workers);
+            int[] work = Arrays.copyOf(pending, pendingCount);
+            ExtractJournal log = journal;
+            for (int w = 0; w < workers; w++) {
+                pool.execute(() -> extractEntries(source.file, targetDir, entries, work, next, log, finished, failure));
+            }
 
-            while ((entry = zis.getNextEntry()) != null) {
-                if (isTaskCancelled) return false;
+            long started = System.nanoTime();
+            long runBytes = 0;
+            for (int count = 1; count <= pendingCount; count++) {
+                int index = finished.take();
+                if (index < 0) {
+                    if (failure.get() != null) Log.e("InstallerManager", "Extraction error", failure.get());
+                    return false;
+                }
+                doneBytes += entries.get(index).size;
+                runBytes += entries.get(index).size;
+
+                int percent = totalBytes > 0 ? (int) (doneBytes * 100 / totalBytes) : 100;
+                if (percent != lastPercent) {
+                    lastPercent = percent;
+                    int files = skipped + count;
+                    mainHandler.post(() -> listener.onProgress(percent, "Extracting data: " + percent + "% (" + files + "/" + entries.size() + " files)"));
+                }
 
-                File outputFile = new File(targetDir, entry.getName());
-                if (entry.isDirectory()) {
-                    if (!outputFile.exists()) outputFile.mkdirs();
-                } else {
-                    File parent = outputFile.getParentFile();
-                    if (parent != null && !parent.exists()) parent.mkdirs();
-
-                    try (FileOutputStream fos = new FileOutputStream(outputFile);
-                         BufferedOutputStream bos = new BufferedOutputStream(fos, buffer.length)) {
-                        int len;
-                        while ((len = zis.read(buffer)) > 0) {
-                            if (isTaskCancelled) return false;
-                            bos.write(buffer, 0, len);
-                        }
-                        bos.flush();
-                    }
+                long now = SystemClock.elapsedRealtime();
+                if (count % EXTRACT_CHECKPOINT_ENTRIES == 0 || now - lastCheckpoint >= EXTRACT_CHECKPOINT_MS) {
+                    journal.save();
+                    lastCheckpoint = now;
                 }
-                zis.closeEntry();
             }
-            zipFile.delete();
+            if (pendingCount > 0) ioTuner.observeExtraction(runBytes, System.nanoTime() - started, workers);
+            journal.delete();
+            journal = null;
+            // Kept while sharing so other headsets can fetch it from us; imported files belong to the user
+            if (!job.imported && !isPeerSharing()) {
+                Downloader.discard(source.file);
+            }
             return true;
         } catch (Exception e) {
             Log.e("InstallerManager", "Extraction error", e);
             return false;
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+                try {
+                    // Nothing may still be writing once the job has moved on
+                    pool.awaitTermination(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            // Cancelled or failed: record everything that did finish so the next attempt skips it
+            if (journal != null) {
+                try {
+                    journal.save();
+                } catch (IOException e) {
+                    Log.w("InstallerManager", "Cannot save extraction journal", e);
+                }
+            }
+        }
+    }
+
+    private static boolean isExtracted(File targetDir, ZipIndex.Entry entry) {
+        File file = new File(targetDir, entry.name);
+        return entry.isDirectory() ? file.isDirectory() : file.isFile() && file.length() == entry.size;
+    }
+
+    // One extraction worker: takes the next pending entry until none are left and reports each one
+    // finished, or -1 if it stopped early because of a cancel or a failure.
+    private void extractEntries(File archive, File targetDir, List<ZipIndex.Entry> entries, int[] work, AtomicInteger next,
+                                ExtractJournal journal, BlockingQueue<Integer> finished, AtomicReference<Exception> failure) {
+        byte[] buffer = BufferPool.acquire(IoTuner.settings().copyBufferBytes);
+        // Compressed bytes for the inflater; buffer takes what it inflates
+        byte[] input = BufferPool.acquire(IoTuner.settings().copyBufferBytes);
+        Inflater inflater = new Inflater(true);
+        try (FileChannel zip = new FileInputStream(archive).getChannel()) {
+            int slot;
+            while ((slot = next.getAndIncrement()) < work.length) {
+                int index = work[slot];
+                if (isTaskCancelled || failure.get() != null || !extractEntry(zip, entries.get(index), targetDir, inflater, input, buffer)) {
+                    finished.add(-1);
+                    return;
+                }
+                journal.markDone(index);
+                finished.add(index);
+            }
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+            finished.add(-1);
+        } finally {
+            inflater.end();
+            BufferPool.release(input);
+            BufferPool.release(buffer);
+        }
+    }
+
+    private boolean extractEntry(FileChannel zip, ZipIndex.Entry entry, File targetDir, Inflater inflater, byte[] input, byte[] buffer) throws IOException {
+        File outputFile = new File(targetDir, entry.name);
+        if (entry.isDirectory()) {
+            if (!outputFile.exists()) outputFile.mkdirs();
+            return true;
+        }
+        File parent = outputFile.getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+
+        File partFile = new File(outputFile.getPath() + PART_SUFFIX);
+        boolean written = false;
+        try {
+            long dataOffset = entry.dataOffset(zip);
+            CRC32 crc = new CRC32();
+            long length;
+            if (entry.method == ZipIndex.METHOD_STORED) {
+                length = copyStored(zip, dataOffset, entry.size, buffer, crc, partFile);
+            } else if (entry.method == ZipIndex.METHOD_DEFLATED) {
+                length = inflateEntry(zip, dataOffset, entry.compressedSize, inflater, input, buffer, crc, partFile);
+            } else {
+                throw new IOException("Unsupported compression method " + entry.method + " for " + entry.name);
+            }
+            if (length < 0) return false;
+            // Checked before the rename, so a bad entry is never journalled as done and is redone on resume
+            if (length != entry.size || crc.getValue() != entry.crc) {
+                throw new IOException("Corrupt entry " + entry.name + ": " + length + " of " + entry.size + " bytes");
+            }
+            written = true;
+            if (!partFile.renameTo(outputFile)) throw new IOException("Cannot store " + entry.name);
+            return true;
+        } finally {
+            if (!written) partFile.delete();
+        }
+    }
+
+    // Bytes written, or -1 if cancelled. Read through the buffer rather than transferTo so every byte
+    // passes the CRC on its way to the file.
+    private long copyStored(FileChannel zip, long offset, long size, byte[] buffer, CRC32 crc, File outputFile) throws IOException {
+        ByteBuffer window = ByteBuffer.wrap(buffer);
+        try (FileOutputStream out = new FileOutputStream(outputFile)) {
+            long done = 0;
+            while (done < size) {
+                if (isTaskCancelled) return -1;
+                window.clear();
+                window.limit((int) Math.min(buffer.length, size - done));
+                int n = zip.read(window, offset + done);
+                if (n <= 0) throw new EOFException("Archive truncated in " + outputFile.getName());
+                crc.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+                done += n;
+            }
+            return done;
+        }
+    }
+
+    // Bytes written, or -1 if cancelled. Feeds the pooled inflater from input and inflates into buffer,
+    // so an entry allocates nothing; no stream wrapper means no buffer of its own per entry.
+    private long inflateEntry(FileChannel zip, long offset, long compressedSize, Inflater inflater, byte[] input, byte[] buffer,
+                              CRC32 crc, File outputFile) throws IOException {
+        inflater.reset();
+        ByteBuffer window = ByteBuffer.wrap(input);
+        long position = offset;
+        long end = offset + compressedSize;
+        // Writes go straight to the file; an extra buffering layer would only copy the same bytes again
+        try (FileOutputStream out = new FileOutputStream(outputFile)) {
+            long done = 0;
+            while (!inflater.finished()) {
+                if (isTaskCancelled) return -1;
+                if (inflater.needsInput()) {
+                    if (position >= end) throw new EOFException("Entry truncated: " + outputFile.getName());
+                    window.clear();
+                    window.limit((int) Math.min(input.length, end - position));
+                    int n = zip.read(window, position);
+                    if (n <= 0) throw new EOFException("Archive truncated in " + outputFile.getName());
+                    position += n;
+                    inflater.setInput(input, 0, n);
+                }
+                int len;
+                try {
+                    len = inflater.inflate(buffer);
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt entry " + outputFile.getName(), e);
+                }
+                if (len == 0 && inflater.needsDictionary()) throw new IOException("Corrupt entry " + outputFile.getName());
+                crc.update(buffer, 0, len);
+                out.write(buffer, 0, len);
+                done += len;
+            }
+            return done;
         }
     }
 
+    // Rescans on the calling thread, so workers only; the UI reads getInstallState().
     public boolean verifyDataInstallation() {
-        File baseDir = new File(Environment.getExternalStorageDirectory(), TARGET_DIR + "/" + DATA_FOLDER);
-        if (!baseDir.exists()) return false;
-        String[] requiredPaths = {
-                "5932408047/rad15/android/manifests",
-                "5932408047/rad15/android/packages"
-        };
-        for (String path : requiredPaths) {
-            File dir = new File(baseDir, path);
-            if (!dir.exists() || !dir.isDirectory()) return false;
-            File[] files = dir.listFiles();
-            if (files == null || files.length < 2) return false;
+        return installState.refreshNow().dataInstalled;
+    }
+
+    public InstallStateIndex.State getInstallState() {
+        return installState.get();
+    }
+
+    // Main thread. Only needed when storage access changes; the monitor reports everything else.
+    public void refreshInstallState() {
+        stateMonitor.rearm();
+        installState.refresh();
+    }
+
+    // Signs the patched APK straight into a PackageInstaller session, so there is no signed copy in
+    // Downloads and nothing for the system installer to read and copy again. The outcome arrives at
+    // installResultReceiver. False if no session could be created; the caller then installs from a file.
+    private boolean installViaSession(File aligned, ApkPatcher.PatcherListener status) throws Exception {
+        PackageInstaller installer = context.getPackageManager().getPackageInstaller();
+        PackageInstaller.SessionParams params = new PackageInstaller.SessionParams(PackageInstaller.SessionParams.MODE_FULL_INSTALL);
+        params.setAppPackageName(InstallStateIndex.GAME_PACKAGE);
+        params.setSize(aligned.length());
+        int sessionId;
+        try {
+            sessionId = installer.createSession(params);
+        } catch (IOException | SecurityException e) {
+            Log.w("InstallerManager", "No install session, installing from a file: " + e.getMessage());
+            return false;
+        }
+
+        boolean committed = false;
+        try (PackageInstaller.Session session = installer.openSession(sessionId)) {
+            StreamingApkSigner.SignedApk signed = ApkPatcher.prepareSigned(aligned, status);
+            int[] lastPercent = {-1};
+            try (OutputStream out = session.openWrite(SESSION_APK_NAME, 0, signed.length)) {
+                signed.writeTo(out, (done, total) -> {
+                    int percent = (int) (done * 100 / total);
+                    if (percent == lastPercent[0]) return;
+                    lastPercent[0] = percent;
+                    mainHandler.post(() -> listener.onProgress(percent, "Installing... " + percent + "%"));
+                });
+                session.fsync(out);
+            }
+            if (isTaskCancelled) return true;
+
+            int flags = PendingIntent.FLAG_UPDATE_CURRENT
+                    | (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S ? PendingIntent.FLAG_MUTABLE : 0);
+            PendingIntent result = PendingIntent.getBroadcast(context, sessionId,
+                    new Intent(ACTION_INSTALL_RESULT).setPackage(context.getPackageName()), flags);
+            session.commit(result.getIntentSender());
+            committed = true;
+        } finally {
+            if (!committed) installer.abandonSession(sessionId);
         }
+        mainHandler.post(() -> listener.onProgress(-1, "Waiting for the system installer..."));
         return true;
     }
 
+    // Main thread. A session first reports PENDING_USER_ACTION with the confirmation screen to show;
+    // the real outcome follows once the user has answered it.
+    private void onInstallResult(Intent intent) {
+        int status = intent.getIntExtra(PackageInstaller.EXTRA_STATUS, PackageInstaller.STATUS_FAILURE);
+        if (status == PackageInstaller.STATUS_PENDING_USER_ACTION) {
+            Intent confirm = intent.getParcelableExtra(Intent.EXTRA_INTENT);
+            try {
+                confirm.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                context.startActivity(confirm);
+            } catch (Exception e) {
+                listener.onError("Could not launch installer.");
+            }
+            return;
+        }
+
+        // The package broadcast has the install state rescanned
+        if (status == PackageInstaller.STATUS_SUCCESS) {
+            listener.onSuccess("Echo VR installed.");
+        } else if (status == PackageInstaller.STATUS_FAILURE_ABORTED) {
+            listener.onError("Install cancelled.");
+        } else {
+            String message = intent.getStringExtra(PackageInstaller.EXTRA_STATUS_MESSAGE);
+            listener.onError("Install failed: " + (message != null ? message : "status " + status));
+        }
+    }
+
     private void launchApkInstaller(File apkFile) {
         try {
             Uri apkUri = FileProvider.getUriForFile(context, context.getPackageName() + ".provider", apkFile);
@@ -471,68 +1175,62 @@ public class InstallerManager {
     }
 
     public void clearCache() {
-        mainHandler.post(listener::onTaskStarted);
-        executorService.execute(() -> {
-            deleteDirectory(context.getExternalFilesDir(null));
-            mainHandler.post(() -> {
-                listener.onTaskFinished();
-                listener.onSuccess("Cache cleared.");
-            });
-        });
+        if (activeJob != null) {
+            listener.onError("Cancel the running install before clearing the cache.");
+            return;
+        }
+        // The prefetch writes under the files dir; it stops at its next write and its files go with the rest
+        cancelPrefetch();
+        bury(context.getExternalFilesDir(null), "Cache cleared.");
     }
 
     public void deleteGameDataFiles() {
-        executorService.execute(() -> {
-            File radDir = new File(Environment.getExternalStorageDirectory(), "Android/media/com.readyatdawn.r15");
-            if (radDir.exists()) deleteDirectory(radDir);
-            prefs.edit().remove(PREF_INSTALLATION_DATE).apply();
-        });
+        if (activeJob != null) {
+            listener.onError("Cancel the running install before deleting game data.");
+            return;
+        }
+        prefs.edit().remove(PREF_INSTALLATION_DATE).apply();
+        bury(new File(Environment.getExternalStorageDirectory(), MEDIA_DIR + "/com.readyatdawn.r15"), "Game data deleted.");
     }
 
-    private void deleteDirectory(File dir) {
-        if (dir != null && dir.isDirectory()) {
-            File[] children = dir.listFiles();
-            if (children != null) {
-                for (File child : children) deleteDirectory(child);
-            }
+    // Main thread. The reaper renames target away before this returns, so the path is free and an install
+    // can start at once; the unlinking carries on in the background and reports when it is done.
+    private void bury(File target, String doneMessage) {
+        cleanups.incrementAndGet();
+        CompletableFuture<Boolean> reaped = reaper.bury(target);
+        installState.refresh();
+        if (reaped == null) {
+            cleanups.decrementAndGet();
+            listener.onSuccess(doneMessage);
+            return;
         }
-        if (dir != null) dir.delete();
+        reaped.whenComplete((complete, error) -> {
+            cleanups.decrementAndGet();
+            if (error != null) Log.e("InstallerManager", "Cleanup failed: " + target, error);
+            boolean success = error == null && complete;
+            mainHandler.post(() -> {
+                // A job started meanwhile owns the dialog, and the leftovers are no concern of it
+                if (activeJob != null) return;
+                if (success) listener.onSuccess(doneMessage);
+                else listener.onError("Some files could not be deleted.");
+            });
+        });
     }
 
     public void checkForUpdates(String currentVersion) {
         mainHandler.post(listener::onTaskStarted);
         executorService.execute(() -> {
             try {
-                URL url = new URL(GITHUB_RELEASES_URL);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestProperty("User-Agent", "EchoVR-Installer");
-                conn.setConnectTimeout(10000);
-
-                BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) response.append(line);
-                reader.close();
-
-                JSONObject json = new JSONObject(response.toString());
-                String remoteVerName = json.getString("name");
-                String notes = json.optString("body", "");
-
-                String downloadUrl = "";
-                JSONArray assets = json.getJSONArray("assets");
-                for (int i=0; i<assets.length(); i++) {
-                    JSONObject asset = assets.getJSONObject(i);
-                    if (asset.getString("name").endsWith(".apk")) {
-                        downloadUrl = asset.getString("browser_download_url");
-                        break;
-                    }
+                MetadataClient.Result result = metadata.fetch(RELEASES_CACHE_KEY, GITHUB_RELEASES_URL, RELEASES_MAX_AGE_MS);
+                ReleaseInfo release;
+                try (Reader reader = result.openReader()) {
+                    release = ReleaseInfo.parse(reader);
                 }
 
-                String finalUrl = downloadUrl;
                 mainHandler.post(() -> {
                     listener.onTaskFinished();
-                    if (isNewVersion(currentVersion, remoteVerName)) {
-                        listener.onUpdateAvailable(remoteVerName, notes, finalUrl);
+                    if (isNewVersion(currentVersion, release.name)) {
+                        listener.onUpdateAvailable(release.name, release.notes, release.apkUrl);
                     } else {
                         listener.onUpdateNotAvailable();
                     }
@@ -546,21 +1244,6 @@ public class InstallerManager {
         });
     }
 
-    public void downloadAndInstallUpdate(String url, String version) {
-        if (!hasEnoughSpace()) return;
-        isTaskCancelled = false;
-        mainHandler.post(listener::onTaskStarted);
-
-        currentTask = executorService.submit(() -> {
-            File apk = downloadFile(url, "updates", "update.apk", "Update " + version, false);
-            mainHandler.post(() -> {
-                listener.onTaskFinished();
-                if (apk != null && !isTaskCancelled) launchApkInstaller(apk);
-                else if (!isTaskCancelled) listener.onError("Update download failed");
-            });
-        });
-    }
-
     private boolean isNewVersion(String current, String remote) {
         String currentVersion = current.replaceAll("[^0-9.]", "");
         String remoteVersion = remote.replaceAll("[^0-9.]", "");
@@ -590,18 +1273,77 @@ public class InstallerManager {
         return false;
     }
 
+    private long availableBytes() {
+        StatFs stat = new StatFs(Environment.getExternalStorageDirectory().getPath());
+        return (long) stat.getAvailableBlocks() * stat.getBlockSize();
+    }
+
     private boolean hasEnoughSpace() {
-        File path = Environment.getExternalStorageDirectory();
-        StatFs stat = new StatFs(path.getPath());
-        long available = (long) stat.getAvailableBlocks() * stat.getBlockSize();
-        if (available < REQUIRED_SPACE_BYTES) {
+        if (availableBytes() < REQUIRED_SPACE_BYTES) {
             mainHandler.post(() -> listener.onError("Not enough space. Need ~2.5GB."));
             return false;
         }
         return true;
     }
 
-    public void shutdown() {
-        executorService.shutdownNow();
+    private class Relay implements Listener {
+        @Override
+        public void onProgress(int progress, String message) {
+            InstallService.update(progress, message);
+            Listener l = attached;
+            if (l != null) l.onProgress(progress, message);
+        }
+
+        @Override
+        public void onSuccess(String message) {
+            Listener l = attached;
+            if (l != null) {
+                l.onSuccess(message);
+            } else {
+                pendingResult = message;
+                pendingIsError = false;
+            }
+        }
+
+        @Override
+        public void onError(String message) {
+            Listener l = attached;
+            if (l != null) {
+                l.onError(message);
+            } else {
+                pendingResult = message;
+                pendingIsError = true;
+            }
+        }
+
+        @Override
+        public void onTaskStarted() {
+            Listener l = attached;
+            if (l != null) l.onTaskStarted();
+        }
+
+        @Override
+        public void onTaskFinished() {
+            Listener l = attached;
+            if (l != null) l.onTaskFinished();
+        }
+
+        @Override
+        public void onUpdateAvailable(String version, String notes, String downloadUrl) {
+            Listener l = attached;
+            if (l != null) l.onUpdateAvailable(version, notes, downloadUrl);
+        }
+
+        @Override
+        public void onUpdateNotAvailable() {
+            Listener l = attached;
+            if (l != null) l.onUpdateNotAvailable();
+        }
+
+        @Override
+        public void onInstallStateChanged() {
+            Listener l = attached;
+            if (l != null) l.onInstallStateChanged();
+        }
     }
 }
\ No newline at end of file
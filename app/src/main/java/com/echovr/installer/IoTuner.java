@@ -0,0 +1,352 @@
+package com.echovr.installer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Chooses buffer sizes and worker counts for this device instead of fixed constants. Short probes
+// measure write throughput to shared storage per buffer size and inflate speed as threads are added;
+// the network rate comes from real downloads rather than a probe that would cost the user data.
+// Results are kept per build fingerprint. A job running far off the calibrated figures marks them
+// stale, and the next idle calibration replaces them.
+final class IoTuner {
+
+    static final class Settings {
+        // Read and write size for plain stream copies and extraction
+        final int copyBufferBytes;
+        // DownloadPipe: bytes per slot and how many slots the reader may run ahead of the writer
+        final int pipeSlotBytes;
+        final int pipeSlots;
+        // Entries extracted at once
+        final int extractWorkers;
+
+        Settings(int copyBufferBytes, int pipeSlotBytes, int pipeSlots, int extractWorkers) {
+            this.copyBufferBytes = copyBufferBytes;
+            this.pipeSlotBytes = pipeSlotBytes;
+            this.pipeSlots = pipeSlots;
+            this.extractWorkers = extractWorkers;
+        }
+
+        @Override
+        public String toString() {
+            return "copy " + copyBufferBytes / 1024 + " KB, pipe " + pipeSlots + " x " + pipeSlotBytes / 1024
+                    + " KB, " + extractWorkers + " extract workers";
+        }
+    }
+
+    // Used until the first calibration and when it fails
+    static final Settings DEFAULTS = new Settings(32 * 1024, 256 * 1024, 8, 1);
+
+    private static final String TAG = "IoTuner";
+    private static final String PREFS_NAME = "EchoVRIoTuner";
+    private static final String KEY_CALIBRATION = "calibration";
+    private static final int[] WRITE_BUFFER_SIZES = {16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+    private static final int WRITE_PROBE_BYTES = 8 * 1024 * 1024;
+    private static final int INFLATE_PROBE_BYTES = 4 * 1024 * 1024;
+    private static final long INFLATE_PROBE_NANOS = 200_000_000L;
+    private static final int MAX_EXTRACT_WORKERS = 4;
+    private static final long MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+    // A buffer size or thread count is only worth it if it gets within this of the best one
+    private static final double GOOD_ENOUGH = 0.9;
+    // Observed and calibrated rates this far apart, this many times in a row, mean the device changed
+    private static final double DRIFT_FACTOR = 2.0;
+    private static final int DRIFT_STRIKES = 2;
+    private static final long MIN_OBSERVED_BYTES = 64L * 1024 * 1024;
+    private static final long NETWORK_WINDOW_NANOS = 10_000_000L;
+    private static final long NETWORK_STALL_NANOS = 250_000_000L;
+
+    private static volatile Settings current = DEFAULTS;
+
+    private final Context context;
+    private final File probeDir;
+    private Calibration calibration;
+    private int driftStrikes;
+
+    private static final class Calibration {
+        final String fingerprint;
+        final long measuredAt;
+        final long writeBytesPerSec;
+        final int writeBufferBytes;
+        final long inflateBytesPerSec;
+        final int inflateThreads;
+        // Smoothed over real downloads; 0 until the first one
+        long networkBytesPerSec;
+
+        Calibration(String fingerprint, long measuredAt, long writeBytesPerSec, int writeBufferBytes,
+                    long inflateBytesPerSec, int inflateThreads, long networkBytesPerSec) {
+            this.fingerprint = fingerprint;
+            this.measuredAt = measuredAt;
+            this.writeBytesPerSec = writeBytesPerSec;
+            this.writeBufferBytes = writeBufferBytes;
+            this.inflateBytesPerSec = inflateBytesPerSec;
+            this.inflateThreads = inflateThreads;
+            this.networkBytesPerSec = networkBytesPerSec;
+        }
+    }
+
+    // probeDir should be on the storage extraction writes to.
+    IoTuner(Context context, File probeDir) {
+        this.context = context.getApplicationContext();
+        this.probeDir = probeDir;
+        synchronized (this) {
+            calibration = load();
+            if (calibration != null) current = derive(calibration);
+        }
+    }
+
+    // The settings to use right now; safe from any thread.
+    static Settings settings() {
+        return current;
+    }
+
+    // Its own worker thread, started while no job runs, so the probes measure the device and not
+    // contention. The probes hold no lock; a job that starts meanwhile still reports its figures.
+    void calibrateIfStale() {
+        synchronized (this) {
+            if (calibration != null && calibration.fingerprint.equals(Build.FINGERPRINT)
+                    && System.currentTimeMillis() - calibration.measuredAt < MAX_AGE_MS) {
+                return;
+            }
+        }
+        try {
+            long started = System.nanoTime();
+            long[] write = probeWrite();
+            long[] inflate = probeInflate();
+            Settings settings;
+            synchronized (this) {
+                long network = calibration != null ? calibration.networkBytesPerSec : 0;
+                calibration = new Calibration(Build.FINGERPRINT, System.currentTimeMillis(),
+                        write[0], (int) write[1], inflate[0], (int) inflate[1], network);
+                driftStrikes = 0;
+                save(calibration);
+                settings = current = derive(calibration);
+            }
+            Log.d(TAG, "Calibrated in " + (System.nanoTime() - started) / 1_000_000 + " ms: write "
+                    + mbps(write[0]) + " MB/s, inflate " + mbps(inflate[0]) + " MB/s per core -> " + settings);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Calibration failed, keeping " + current + ": " + e.getMessage());
+        }
+    }
+
+    // A finished download. Networks legitimately vary, so this is smoothed in rather than treated as drift.
+    synchronized void observeNetwork(long bytes, long nanos) {
+        if (calibration == null || bytes < MIN_OBSERVED_BYTES || nanos <= 0) return;
+        long rate = (long) (bytes * 1e9 / nanos);
+        calibration.networkBytesPerSec = calibration.networkBytesPerSec == 0
+                ? rate : (calibration.networkBytesPerSec + rate) / 2;
+        save(calibration);
+        current = derive(calibration);
+    }
+
+    // A finished extraction run with the given worker count. Repeatedly far from what the calibration
+    // predicts (storage swapped, thermal limits, a different backend) forces a new calibration.
+    synchronized void observeExtraction(long bytes, long nanos, int workers) {
+        if (calibration == null || bytes < MIN_OBSERVED_BYTES || nanos <= 0) return;
+        double observed = bytes * 1e9 / nanos;
+        double expected = Math.min(calibration.writeBytesPerSec, (double) calibration.inflateBytesPerSec * workers);
+        boolean drifted = observed * DRIFT_FACTOR < expected || observed > expected * DRIFT_FACTOR;
+        driftStrikes = drifted ? driftStrikes + 1 : 0;
+        if (driftStrikes >= DRIFT_STRIKES) {
+            Log.d(TAG, "Extraction at " + mbps((long) observed) + " MB/s against " + mbps((long) expected)
+                    + " MB/s calibrated; recalibrating");
+            calibration = new Calibration(calibration.fingerprint, 0, calibration.writeBytesPerSec,
+                    calibration.writeBufferBytes, calibration.inflateBytesPerSec, calibration.inflateThreads,
+                    calibration.networkBytesPerSec);
+            save(calibration);
+            driftStrikes = 0;
+        }
+    }
+
+    private static Settings derive(Calibration c) {
+        int slotBytes = DEFAULTS.pipeSlotBytes;
+        int slots = DEFAULTS.pipeSlots;
+        if (c.networkBytesPerSec > 0) {
+            // A slot per ~10 ms of network keeps handoffs cheap; enough slots to ride out a 250 ms write stall
+            slotBytes = clampPowerOfTwo(c.networkBytesPerSec * NETWORK_WINDOW_NANOS / 1_000_000_000L, 64 * 1024, 1024 * 1024);
+            long stallBytes = c.networkBytesPerSec * NETWORK_STALL_NANOS / 1_000_000_000L;
+            slots = (int) Math.max(4, Math.min(16, (stallBytes + slotBytes - 1) / slotBytes));
+        }
+        // Workers past what storage can absorb only queue up behind it; one extra overlaps inflate with write
+        int workers = c.inflateThreads;
+        if (c.inflateBytesPerSec > 0) {
+            workers = (int) Math.min(workers, (c.writeBytesPerSec + c.inflateBytesPerSec - 1) / c.inflateBytesPerSec + 1);
+        }
+        return new Settings(c.writeBufferBytes, slotBytes, slots, Math.max(1, workers));
+    }
+
+    private static int clampPowerOfTwo(long value, int min, int max) {
+        int size = min;
+        while (size < max && size * 2L <= value) size *= 2;
+        return size;
+    }
+
+    // Returns {best rate, smallest buffer size that gets close to it}.
+    private long[] probeWrite() throws IOException {
+        if (probeDir == null || (!probeDir.isDirectory() && !probeDir.mkdirs())) {
+            throw new IOException("No probe directory");
+        }
+        File probe = new File(probeDir, ".iotuner.probe");
+        try {
+            // The first write also pays for creating the file and waking the storage up
+            writeProbe(probe, WRITE_BUFFER_SIZES[0], WRITE_PROBE_BYTES / 8);
+            long[] rates = new long[WRITE_BUFFER_SIZES.length];
+            long best = 0;
+            for (int i = 0; i < WRITE_BUFFER_SIZES.length; i++) {
+                rates[i] = writeProbe(probe, WRITE_BUFFER_SIZES[i], WRITE_PROBE_BYTES);
+                best = Math.max(best, rates[i]);
+            }
+            for (int i = 0; i < WRITE_BUFFER_SIZES.length; i++) {
+                if (rates[i] >= best * GOOD_ENOUGH) return new long[]{best, WRITE_BUFFER_SIZES[i]};
+            }
+            return new long[]{best, WRITE_BUFFER_SIZES[WRITE_BUFFER_SIZES.length - 1]};
+        } finally {
+            probe.delete();
+        }
+    }
+
+    // Bytes per second, including the sync, so the page cache doesn't flatter small probes.
+    private static long writeProbe(File file, int bufferBytes, int totalBytes) throws IOException {
+        byte[] buf = new byte[bufferBytes];
+        new Random(bufferBytes).nextBytes(buf);
+        long started = System.nanoTime();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int written = 0; written < totalBytes; written += bufferBytes) {
+                out.write(buf, 0, Math.min(bufferBytes, totalBytes - written));
+            }
+            out.getFD().sync();
+        }
+        return (long) (totalBytes * 1e9 / Math.max(1, System.nanoTime() - started));
+    }
+
+    // Returns {single-thread rate, fewest threads that get close to the best total}.
+    private static long[] probeInflate() {
+        byte[] plain = compressibleBytes(INFLATE_PROBE_BYTES);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] compressed = new byte[plain.length + 1024];
+        int compressedLen = 0;
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+            while (!deflater.finished()) compressedLen += deflater.deflate(compressed, compressedLen, compressed.length - compressedLen);
+        } finally {
+            deflater.end();
+        }
+
+        int maxThreads = Math.min(MAX_EXTRACT_WORKERS, Runtime.getRuntime().availableProcessors());
+        long[] totals = new long[maxThreads + 1];
+        long best = 0;
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            totals[threads] = inflateRate(compressed, compressedLen, plain.length, threads);
+            best = Math.max(best, totals[threads]);
+        }
+        int chosen = 1;
+        while (totals[chosen] < best * GOOD_ENOUGH) chosen++;
+        return new long[]{totals[1], chosen};
+    }
+
+    // Total output bytes per second with threads inflating side by side for a fixed time.
+    private static long inflateRate(byte[] compressed, int compressedLen, int plainLen, int threads) {
+        AtomicLong produced = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+        long until = System.nanoTime() + INFLATE_PROBE_NANOS;
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                Inflater inflater = new Inflater(true);
+                byte[] out = new byte[plainLen];
+                try {
+                    while (System.nanoTime() < until) {
+                        inflater.reset();
+                        inflater.setInput(compressed, 0, compressedLen);
+                        produced.addAndGet(inflater.inflate(out));
+                    }
+                } catch (DataFormatException ignored) {
+                } finally {
+                    inflater.end();
+                    done.countDown();
+                }
+            }, "IoTuner-inflate");
+            worker.start();
+        }
+        long started = System.nanoTime();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return (long) (produced.get() * 1e9 / Math.max(1, System.nanoTime() - started));
+    }
+
+    // Repetitive text with some noise, about as compressible as game data manifests and packages.
+    private static byte[] compressibleBytes(int size) {
+        Random random = new Random(15);
+        String[] words = {"rad15", "android", "packages", "manifests", "texture", "level", "arena", "combat", "0x", "\n"};
+        byte[] data = new byte[size];
+        int pos = 0;
+        while (pos < size) {
+            byte[] word = (random.nextInt(8) == 0 ? Integer.toHexString(random.nextInt()) : words[random.nextInt(words.length)])
+                    .getBytes(StandardCharsets.US_ASCII);
+            int n = Math.min(word.length, size - pos);
+            System.arraycopy(word, 0, data, pos, n);
+            pos += n;
+        }
+        return data;
+    }
+
+    private static long mbps(long bytesPerSec) {
+        return bytesPerSec / (1024 * 1024);
+    }
+
+    private Calibration load() {
+        String stored = prefs().getString(KEY_CALIBRATION, null);
+        if (stored == null) return null;
+        try {
+            JSONObject json = new JSONObject(stored);
+            return new Calibration(
+                    json.getString("fingerprint"),
+                    json.getLong("measuredAt"),
+                    json.getLong("writeBytesPerSec"),
+                    json.getInt("writeBufferBytes"),
+                    json.getLong("inflateBytesPerSec"),
+                    json.getInt("inflateThreads"),
+                    json.getLong("networkBytesPerSec"));
+        } catch (JSONException e) {
+            Log.w(TAG, "Discarding unreadable calibration: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(Calibration c) {
+        try {
+            JSONObject json = new JSONObject()
+                    .put("fingerprint", c.fingerprint)
+                    .put("measuredAt", c.measuredAt)
+                    .put("writeBytesPerSec", c.writeBytesPerSec)
+                    .put("writeBufferBytes", c.writeBufferBytes)
+                    .put("inflateBytesPerSec", c.inflateBytesPerSec)
+                    .put("inflateThreads", c.inflateThreads)
+                    .put("networkBytesPerSec", c.networkBytesPerSec);
+            prefs().edit().putString(KEY_CALIBRATION, json.toString()).apply();
+        } catch (JSONException e) {
+            Log.e(TAG, "Cannot persist calibration", e);
+        }
+    }
+
+    private SharedPreferences prefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
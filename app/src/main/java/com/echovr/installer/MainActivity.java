@@ -12,8 +12,6 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.Handler;
-import android.os.Looper;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.Log;
@@ -45,7 +43,7 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
     // UI Elements
     private LinearLayout gameSelectionLayout, mainContentLayout;
     private TextView statusText;
-    private Button downloadButton, reinstallButton, grantPermissionsButton, launchEchoVRButton, uninstallEchoVRButton;
+    private Button downloadButton, importDataButton, reinstallButton, grantPermissionsButton, launchEchoVRButton, uninstallEchoVRButton;
     private Button helpButtonGame, helpButtonMain;
     private AlertDialog progressDialog;
 
@@ -61,11 +59,29 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
             new ActivityResultContracts.StartActivityForResult(),
             result -> {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-                    if (Environment.isExternalStorageManager()) checkState();
+                    if (Environment.isExternalStorageManager()) {
+                        checkState();
+                        manager.refreshInstallState();
+                    }
                 }
             }
     );
 
+    // Local file / content:// imports; the document is read in place by the install job
+    private final ActivityResultLauncher<String[]> importDataLauncher = registerForActivityResult(
+            new ActivityResultContracts.OpenDocument(),
+            uri -> {
+                if (uri != null) manager.importGameData(uri);
+            }
+    );
+
+    private final ActivityResultLauncher<String[]> importApkLauncher = registerForActivityResult(
+            new ActivityResultContracts.OpenDocument(),
+            uri -> {
+                if (uri != null) manager.importApk(uri);
+            }
+    );
+
     private final ActivityResultLauncher<Intent> installPermissionLauncher = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
             result -> checkPermissions()
@@ -78,8 +94,10 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
         setContentView(R.layout.activity_main);
 
         prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        manager = new InstallerManager(this, this);
+        manager = ((MainApplication) getApplication()).getInstaller();
+        manager.setListener(this);
         manager.fetchRemoteConfig();
+        manager.resumePendingJob();
 
         initializeViews();
         checkInstallPermission(); 
@@ -102,6 +120,7 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
         statusText = findViewById(R.id.statusText);
 
         downloadButton = findViewById(R.id.downloadButton);
+        importDataButton = findViewById(R.id.importDataButton);
         reinstallButton = findViewById(R.id.reinstallButton);
         grantPermissionsButton = findViewById(R.id.grantPermissionsButton);
         launchEchoVRButton = findViewById(R.id.launchEchoVRButton);
@@ -117,6 +136,8 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
 
         // Actions
         downloadButton.setOnClickListener(v -> manager.installGameData());
+        importDataButton.setOnClickListener(v -> importDataLauncher.launch(new String[]{"application/zip", "application/octet-stream"}));
+        findViewById(R.id.importApkButton).setOnClickListener(v -> importApkLauncher.launch(new String[]{"application/vnd.android.package-archive", "application/octet-stream"}));
         reinstallButton.setOnClickListener(v -> showConfirmDialog("Reinstall Game Data", "This will re-download all game data.", () -> manager.installGameData()));
         grantPermissionsButton.setOnClickListener(v -> openAppPermissions());
         launchEchoVRButton.setOnClickListener(v -> launchEchoVR());
@@ -143,6 +164,16 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
         checkUpdatesButtonGame.setOnClickListener(checkUpdates);
         checkUpdatesButtonMain.setOnClickListener(checkUpdates);
 
+        // Serve cached downloads to other headsets on the same network
+        Button peerSharingButton = findViewById(R.id.peerSharingButton);
+        peerSharingButton.setText(manager.isPeerSharing() ? "LAN SHARING: ON" : "LAN SHARING: OFF");
+        peerSharingButton.setOnClickListener(v -> {
+            boolean enable = !manager.isPeerSharing();
+            manager.setPeerSharing(enable);
+            peerSharingButton.setText(enable ? "LAN SHARING: ON" : "LAN SHARING: OFF");
+            Toast.makeText(this, enable ? "Other headsets on this WiFi can now download from this one" : "LAN sharing off", Toast.LENGTH_SHORT).show();
+        });
+
         helpButtonGame = findViewById(R.id.helpButtonGame);
         helpButtonMain = findViewById(R.id.helpButtonMain);
         View.OnClickListener help = v -> showHelpDialog();
@@ -250,16 +281,23 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
         dialog.show();
     }
 
+    // Reads the manager's cached install state only; it calls back when a rescan changes it.
     private void checkState() {
-        boolean isInstalled = isPackageInstalled(ECHO_VR_PACKAGE);
+        InstallStateIndex.State state = manager.getInstallState();
+        // First run: the first scan is still going and calls back when it is done
+        if (!state.isKnown()) {
+            gameSelectionLayout.setVisibility(View.GONE);
+            mainContentLayout.setVisibility(View.GONE);
+            return;
+        }
 
-        if (isInstalled) {
+        if (state.packageInstalled) {
             gameSelectionLayout.setVisibility(View.GONE);
             mainContentLayout.setVisibility(View.VISIBLE);
             helpButtonGame.setVisibility(View.GONE);
             helpButtonMain.setVisibility(View.VISIBLE);
 
-            if (manager.verifyDataInstallation()) {
+            if (state.dataInstalled) {
                 String date = prefs.getString("installation_date", "");
                 String msg = "Game data installed";
                 if (!date.isEmpty()) msg += "\nInstalled: " + date;
@@ -267,6 +305,7 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
                 statusText.setText(msg);
                 statusText.setTextColor(Color.GREEN);
                 downloadButton.setVisibility(View.GONE);
+                importDataButton.setVisibility(View.GONE);
                 reinstallButton.setVisibility(View.VISIBLE);
                 grantPermissionsButton.setVisibility(View.VISIBLE);
                 launchEchoVRButton.setVisibility(View.VISIBLE);
@@ -274,7 +313,9 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
             } else {
                 statusText.setText("Game data missing");
                 statusText.setTextColor(Color.parseColor("#ff9800"));
+                manager.prefetchGameData();
                 downloadButton.setVisibility(View.VISIBLE);
+                importDataButton.setVisibility(View.VISIBLE);
                 reinstallButton.setVisibility(View.GONE);
                 grantPermissionsButton.setVisibility(View.GONE);
                 launchEchoVRButton.setVisibility(View.GONE);
@@ -358,6 +399,11 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
         Toast.makeText(this, "No updates available", Toast.LENGTH_SHORT).show();
     }
 
+    @Override
+    public void onInstallStateChanged() {
+        checkState();
+    }
+
     // --- Permissions ---
 
     private void checkInstallPermission() {
@@ -409,6 +455,7 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         if (requestCode == 100 && grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
             checkState();
+            manager.refreshInstallState();
         } else {
             Toast.makeText(this, "Permission denied. App cannot function.", Toast.LENGTH_SHORT).show();
         }
@@ -622,15 +669,6 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
         return m.find() ? m.group(1) : null;
     }
 
-    private boolean isPackageInstalled(String pkg) {
-        try {
-            getPackageManager().getPackageInfo(pkg, 0);
-            return true;
-        } catch (PackageManager.NameNotFoundException e) {
-            return false;
-        }
-    }
-
     private boolean hasFilePermissions() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) return Environment.isExternalStorageManager();
         return ActivityCompat.checkSelfPermission(this, android.Manifest.permission.WRITE_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED;
@@ -643,18 +681,15 @@ public class MainActivity extends AppCompatActivity implements InstallerManager.
     @Override
     protected void onResume() {
         super.onResume();
+        // Installs, removals and data changes made while away have already been pushed through
+        // onInstallStateChanged; this only redraws from the cached state
         checkState();
-        
-        new Handler(Looper.getMainLooper()).postDelayed(this::checkState, 2000);
-
-        if (manager.verifyDataInstallation() && !isPackageInstalled(ECHO_VR_PACKAGE)) {
-            checkState();
-        }
     }
 
     @Override
     protected void onDestroy() {
-        manager.shutdown();
+        // Running jobs carry on in InstallService; results are shown when the activity comes back
+        manager.removeListener(this);
         super.onDestroy();
     }
 }
\ No newline at end of file
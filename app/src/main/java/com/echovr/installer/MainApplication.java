@@ -1,13 +1,26 @@
 package com.echovr.installer;
 
 import android.app.Application;
-import androidx.annotation.NonNull;
 
 public class MainApplication extends Application {
-    
+
+    // Owned by the process rather than an activity so install jobs outlive the UI
+    private InstallerManager installer;
+
     @Override
     public void onCreate() {
         super.onCreate();
-        // Initialize any app-wide components here
+        installer = new InstallerManager(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Idle buffers are only a cache; give them back before the system has to ask harder
+        if (level >= TRIM_MEMORY_RUNNING_LOW) BufferPool.trim();
+    }
+
+    public InstallerManager getInstaller() {
+        return installer;
     }
 }
\ No newline at end of file
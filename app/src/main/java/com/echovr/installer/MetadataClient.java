@@ -0,0 +1,160 @@
+package com.echovr.installer;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Small on-disk HTTP cache for the JSON documents the installer polls (config.json, GitHub releases).
+// Bodies are kept as files so they can be stream-parsed; validators live next to them in a .meta file.
+public class MetadataClient {
+
+    public static final class Result {
+        public final File body;
+        public final boolean changed;
+        public final boolean stale;
+
+        Result(File body, boolean changed, boolean stale) {
+            this.body = body;
+            this.changed = changed;
+            this.stale = stale;
+        }
+
+        public Reader openReader() throws IOException {
+            return new InputStreamReader(new FileInputStream(body), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final String TAG = "MetadataClient";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+    private static final String KEY_FETCHED_AT = "fetched_at";
+
+    private final File cacheDir;
+
+    public MetadataClient(Context context) {
+        this.cacheDir = new File(context.getCacheDir(), "metadata");
+    }
+
+    // Last stored body, without touching the network. Null if nothing has been cached yet.
+    public File cached(String key) {
+        File body = bodyFile(key);
+        return body.exists() ? body : null;
+    }
+
+    // Serves the cached body while it is younger than maxAgeMs. Otherwise revalidates with
+    // If-None-Match/If-Modified-Since and falls back to the stale copy if the network fails.
+    public Result fetch(String key, String url, long maxAgeMs) throws IOException {
+        File body = bodyFile(key);
+        Properties meta = readMeta(key);
+        long fetchedAt = fetchedAt(meta);
+
+        if (body.exists() && System.currentTimeMillis() - fetchedAt < maxAgeMs) {
+            return new Result(body, false, false);
+        }
+
+        Request.Builder request = new Request.Builder().url(url);
+        if (body.exists()) {
+            String etag = meta.getProperty(KEY_ETAG);
+            String lastModified = meta.getProperty(KEY_LAST_MODIFIED);
+            if (etag != null) request.header("If-None-Match", etag);
+            if (lastModified != null) request.header("If-Modified-Since", lastModified);
+        }
+
+        try (Response response = HttpTransport.client().newCall(request.build()).execute()) {
+            int code = response.code();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && body.exists()) {
+                meta.setProperty(KEY_FETCHED_AT, String.valueOf(System.currentTimeMillis()));
+                writeMeta(key, meta);
+                return new Result(body, false, false);
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " for " + url);
+            }
+
+            storeBody(key, response.body().byteStream());
+
+            Properties fresh = new Properties();
+            String etag = response.header("ETag");
+            String lastModified = response.header("Last-Modified");
+            if (etag != null) fresh.setProperty(KEY_ETAG, etag);
+            if (lastModified != null) fresh.setProperty(KEY_LAST_MODIFIED, lastModified);
+            fresh.setProperty(KEY_FETCHED_AT, String.valueOf(System.currentTimeMillis()));
+            writeMeta(key, fresh);
+            return new Result(body, true, false);
+
+        } catch (IOException e) {
+            if (body.exists()) {
+                Log.w(TAG, "Serving stale " + key + ": " + e.getMessage());
+                return new Result(body, false, true);
+            }
+            throw e;
+        }
+    }
+
+    // Seeds the cache from an older storage location so the first launch after an upgrade still has data.
+    public void seed(String key, String content) throws IOException {
+        if (bodyFile(key).exists()) return;
+        storeBody(key, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        writeMeta(key, new Properties());
+    }
+
+    private void storeBody(String key, InputStream in) throws IOException {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) throw new IOException("Cannot create " + cacheDir);
+        File tmp = new File(cacheDir, key + ".json.tmp");
+        try (InputStream is = in; OutputStream out = new FileOutputStream(tmp)) {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = is.read(buf)) > 0) out.write(buf, 0, len);
+        }
+        if (!tmp.renameTo(bodyFile(key))) throw new IOException("Cannot store " + key);
+    }
+
+    private File bodyFile(String key) {
+        return new File(cacheDir, key + ".json");
+    }
+
+    // A damaged timestamp makes the body stale, so it is revalidated rather than failing the fetch
+    private static long fetchedAt(Properties meta) {
+        try {
+            return Long.parseLong(meta.getProperty(KEY_FETCHED_AT, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private Properties readMeta(String key) {
+        Properties meta = new Properties();
+        File file = new File(cacheDir, key + ".meta");
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                meta.load(in);
+            } catch (IOException e) {
+                Log.w(TAG, "Discarding unreadable meta for " + key);
+            }
+        }
+        return meta;
+    }
+
+    private void writeMeta(String key, Properties meta) throws IOException {
+        File tmp = new File(cacheDir, key + ".meta.tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            meta.store(out, null);
+        }
+        if (!tmp.renameTo(new File(cacheDir, key + ".meta"))) throw new IOException("Cannot store meta for " + key);
+    }
+}
@@ -0,0 +1,194 @@
+package com.echovr.installer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Download history per mirror, kept across sessions so installs start on whichever source has been
+// fastest from here. Mirrors are keyed by host, since one host serves several artifacts and is about
+// as fast for all of them. Every figure is an exponential average, so a mirror that gets better or
+// worse, or a move to another network, shows up within a few downloads.
+final class MirrorHealth {
+
+    private static final String TAG = "MirrorHealth";
+    private static final String PREFS_NAME = "EchoVRMirrorHealth";
+    private static final String KEY_HOSTS = "hosts";
+    private static final double WEIGHT = 0.3;
+    // Smaller transfers (a resume that was nearly done, a 416) say little about throughput
+    private static final long MIN_SAMPLE_BYTES = 4L * 1024 * 1024;
+    // Mirrors are compared by how long this much would take, so both the first byte and throughput count
+    private static final long REFERENCE_BYTES = 256L * 1024 * 1024;
+    // A mirror that always fails still ranks, last; the cost only has to stay finite
+    private static final double MIN_SUCCESS_RATE = 0.05;
+    // LAN peers come and go; the oldest hosts are forgotten past this
+    private static final int MAX_HOSTS = 32;
+
+    private static final class Stats {
+        double bytesPerSecond;
+        double firstByteMillis = -1;
+        double failureRate;
+        long lastUsed;
+
+        // Seconds to fetch REFERENCE_BYTES, or -1 before any transfer was large enough to time
+        double seconds() {
+            if (bytesPerSecond <= 0) return -1;
+            return Math.max(0, firstByteMillis) / 1000 + REFERENCE_BYTES / bytesPerSecond;
+        }
+
+        // Stretched by the expected number of attempts. Without a timing the host is taken to be typical.
+        double cost(double prior) {
+            double seconds = seconds();
+            return (seconds >= 0 ? seconds : prior) / Math.max(MIN_SUCCESS_RATE, 1 - failureRate);
+        }
+    }
+
+    private final SharedPreferences prefs;
+    private final Map<String, Stats> hosts = new HashMap<>();
+
+    MirrorHealth(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    // Cheapest first; config order only breaks ties. A mirror that was never timed is assumed to be as
+    // fast as the median timed host, so it goes ahead of slow ones and gets measured, and its failures
+    // still push it down.
+    synchronized List<String> order(List<String> mirrors) {
+        double prior = medianSeconds();
+        List<String> sorted = new ArrayList<>(mirrors);
+        Collections.sort(sorted, (a, b) -> Double.compare(cost(a, prior), cost(b, prior)));
+        if (sorted.size() > 1) {
+            StringBuilder line = new StringBuilder("Mirror order:");
+            for (String url : sorted) line.append(' ').append(describe(url));
+            Log.d(TAG, line.toString());
+        }
+        return sorted;
+    }
+
+    // firstByteMillis is -1 when no response arrived.
+    synchronized void recordSuccess(String url, long bytes, long nanos, long firstByteMillis) {
+        Stats stats = stats(url);
+        if (bytes >= MIN_SAMPLE_BYTES && nanos > 0) {
+            double rate = bytes * 1e9 / nanos;
+            stats.bytesPerSecond = stats.bytesPerSecond > 0 ? blend(stats.bytesPerSecond, rate) : rate;
+        }
+        recordFirstByte(stats, firstByteMillis);
+        stats.failureRate = blend(stats.failureRate, 0);
+        save();
+    }
+
+    synchronized void recordFailure(String url, long firstByteMillis) {
+        Stats stats = stats(url);
+        recordFirstByte(stats, firstByteMillis);
+        stats.failureRate = blend(stats.failureRate, 1);
+        save();
+    }
+
+    private double cost(String url, double prior) {
+        Stats stats = hosts.get(host(url));
+        return stats != null ? stats.cost(prior) : prior;
+    }
+
+    // Any positive figure will do before the first timing, as long as every host gets the same one
+    private double medianSeconds() {
+        List<Double> timed = new ArrayList<>();
+        for (Stats stats : hosts.values()) {
+            double seconds = stats.seconds();
+            if (seconds >= 0) timed.add(seconds);
+        }
+        if (timed.isEmpty()) return 1;
+        Collections.sort(timed);
+        int mid = timed.size() / 2;
+        return timed.size() % 2 == 1 ? timed.get(mid) : (timed.get(mid - 1) + timed.get(mid)) / 2;
+    }
+
+    private String describe(String url) {
+        Stats stats = hosts.get(host(url));
+        if (stats == null) return host(url) + "(new)";
+        return String.format(Locale.US, "%s(%.1f MB/s, %.0f ms, %.0f%% fail)", host(url),
+                stats.bytesPerSecond / (1024 * 1024), stats.firstByteMillis, stats.failureRate * 100);
+    }
+
+    private Stats stats(String url) {
+        String host = host(url);
+        Stats stats = hosts.get(host);
+        if (stats == null) {
+            stats = new Stats();
+            hosts.put(host, stats);
+        }
+        stats.lastUsed = System.currentTimeMillis();
+        return stats;
+    }
+
+    private static void recordFirstByte(Stats stats, long millis) {
+        if (millis < 0) return;
+        stats.firstByteMillis = stats.firstByteMillis >= 0 ? blend(stats.firstByteMillis, millis) : millis;
+    }
+
+    private static double blend(double average, double sample) {
+        return average + WEIGHT * (sample - average);
+    }
+
+    private static String host(String url) {
+        String host = Uri.parse(url).getHost();
+        return host != null ? host.toLowerCase(Locale.ROOT) : url;
+    }
+
+    private void load() {
+        String stored = prefs.getString(KEY_HOSTS, null);
+        if (stored == null) return;
+        try {
+            JSONObject json = new JSONObject(stored);
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String host = keys.next();
+                JSONObject entry = json.getJSONObject(host);
+                Stats stats = new Stats();
+                stats.bytesPerSecond = entry.optDouble("bytesPerSecond", 0);
+                stats.firstByteMillis = entry.optDouble("firstByteMillis", -1);
+                stats.failureRate = entry.optDouble("failureRate", 0);
+                stats.lastUsed = entry.optLong("lastUsed", 0);
+                hosts.put(host, stats);
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Discarding unreadable mirror history: " + e.getMessage());
+            hosts.clear();
+        }
+    }
+
+    private void save() {
+        while (hosts.size() > MAX_HOSTS) {
+            String oldest = null;
+            for (Map.Entry<String, Stats> entry : hosts.entrySet()) {
+                if (oldest == null || entry.getValue().lastUsed < hosts.get(oldest).lastUsed) oldest = entry.getKey();
+            }
+            hosts.remove(oldest);
+        }
+        try {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<String, Stats> entry : hosts.entrySet()) {
+                Stats stats = entry.getValue();
+                json.put(entry.getKey(), new JSONObject()
+                        .put("bytesPerSecond", stats.bytesPerSecond)
+                        .put("firstByteMillis", stats.firstByteMillis)
+                        .put("failureRate", stats.failureRate)
+                        .put("lastUsed", stats.lastUsed));
+            }
+            prefs.edit().putString(KEY_HOSTS, json.toString()).apply();
+        } catch (JSONException e) {
+            Log.e(TAG, "Cannot persist mirror history", e);
+        }
+    }
+}
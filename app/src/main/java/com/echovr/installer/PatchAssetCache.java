@@ -0,0 +1,283 @@
+package com.echovr.installer;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Keeps the Better Graphics patch files between runs. Entries are revalidated with ETags at most once
+// a day, partial downloads resume with If-Range, and a file only replaces the cached copy once it has
+// the advertised length and passes a format check.
+public class PatchAssetCache {
+
+    public static final class Assets {
+        public final File lib;
+        public final File config;
+
+        Assets(File lib, File config) {
+            this.lib = lib;
+            this.config = config;
+        }
+
+        // Looks up a file by the asset name a patch set entry refers to.
+        public File get(String name) {
+            if (name.equals(lib.getName())) return lib;
+            if (name.equals(config.getName())) return config;
+            return null;
+        }
+    }
+
+    private interface Validator {
+        boolean isValid(File file) throws IOException;
+    }
+
+    static final String PATCH_LIB_URL = "https://github.com/heisthecat31/EchoVR-Installer/releases/download/Installer/libr15.so";
+    static final String PATCH_CONFIG_URL = "https://github.com/heisthecat31/EchoVR-Installer/releases/download/Installer/gamesettings_config.json";
+
+    private static final String TAG = "PatchAssetCache";
+    // Bump when the on-disk layout changes; older directories are ignored and cleaned up.
+    private static final int CACHE_VERSION = 1;
+    private static final long REVALIDATE_AFTER_MS = 24 * 60 * 60 * 1000L;
+
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+    private static final String KEY_VERIFIED_AT = "verified_at";
+    private static final String KEY_PARTIAL_ETAG = "partial_etag";
+
+    private final File dir;
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    public PatchAssetCache(Context context) {
+        File root = new File(context.getExternalCacheDir(), "patch-assets");
+        this.dir = new File(root, "v" + CACHE_VERSION);
+        // Off the main thread; only other versions' directories are touched, so fetches needn't wait
+        executor.execute(() -> {
+            File[] versions = root.listFiles();
+            if (versions != null) {
+                for (File v : versions) {
+                    if (!v.equals(dir)) deleteRecursive(v);
+                }
+            }
+        });
+    }
+
+    // Starts both assets downloading concurrently; the caller joins with get() when it needs them.
+    // Cancelling the returned future cancels both downloads.
+    public Future<Assets> fetchAsync() {
+        Future<File> lib = executor.submit(() -> fetch("libr15.so", PATCH_LIB_URL, PatchAssetCache::isElf));
+        Future<File> config = executor.submit(() -> fetch("gamesettings_config.json", PATCH_CONFIG_URL, PatchAssetCache::isJsonObject));
+        return new Pair(lib, config);
+    }
+
+    // Joins on the caller's thread, so nothing sits queued behind the downloads waiting to join them.
+    private static final class Pair implements Future<Assets> {
+        private final Future<File> lib;
+        private final Future<File> config;
+
+        Pair(Future<File> lib, Future<File> config) {
+            this.lib = lib;
+            this.config = config;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean libCancelled = lib.cancel(mayInterruptIfRunning);
+            boolean configCancelled = config.cancel(mayInterruptIfRunning);
+            return libCancelled || configCancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return lib.isCancelled() || config.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return lib.isDone() && config.isDone();
+        }
+
+        // A failed or interrupted join stops the other download too.
+        @Override
+        public Assets get() throws InterruptedException, ExecutionException {
+            try {
+                return new Assets(lib.get(), config.get());
+            } catch (InterruptedException | ExecutionException | RuntimeException e) {
+                cancel(true);
+                throw e;
+            }
+        }
+
+        @Override
+        public Assets get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            try {
+                File libFile = lib.get(timeout, unit);
+                return new Assets(libFile, config.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+            } catch (InterruptedException | ExecutionException | RuntimeException e) {
+                cancel(true);
+                throw e;
+            }
+        }
+    }
+
+    private File fetch(String name, String url, Validator validator) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+
+        File file = new File(dir, name);
+        File part = new File(dir, name + ".part");
+        File metaFile = new File(dir, name + ".meta");
+        Properties meta = readMeta(metaFile);
+
+        long verifiedAt = verifiedAt(meta);
+        if (file.exists() && System.currentTimeMillis() - verifiedAt < REVALIDATE_AFTER_MS) {
+            return file;
+        }
+
+        Request.Builder request = new Request.Builder().url(url);
+        String etag = meta.getProperty(KEY_ETAG);
+        String partialEtag = meta.getProperty(KEY_PARTIAL_ETAG);
+        boolean resuming = part.exists() && part.length() > 0 && partialEtag != null;
+
+        if (resuming) {
+            // If-Range makes the server send the whole file instead if it changed since the partial started
+            request.header("Range", "bytes=" + part.length() + "-");
+            request.header("If-Range", partialEtag);
+        } else if (file.exists()) {
+            if (etag != null) request.header("If-None-Match", etag);
+            String lastModified = meta.getProperty(KEY_LAST_MODIFIED);
+            if (lastModified != null) request.header("If-Modified-Since", lastModified);
+        }
+
+        try (Response response = HttpTransport.client().newCall(request.build()).execute()) {
+            int code = response.code();
+
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && file.exists()) {
+                meta.setProperty(KEY_VERIFIED_AT, String.valueOf(System.currentTimeMillis()));
+                writeMeta(metaFile, meta);
+                return file;
+            }
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("HTTP " + code + " fetching " + name);
+            }
+
+            boolean append = code == HttpURLConnection.HTTP_PARTIAL && resuming;
+            String newEtag = response.header("ETag");
+            if (newEtag != null) {
+                meta.setProperty(KEY_PARTIAL_ETAG, newEtag);
+                writeMeta(metaFile, meta);
+            }
+
+            long expected = response.body().contentLength();
+            long offset = append ? part.length() : 0;
+            try (InputStream in = response.body().byteStream();
+                 OutputStream out = new FileOutputStream(part, append)) {
+                byte[] buf = BufferPool.acquire(IoTuner.settings().copyBufferBytes);
+                try {
+                    int len;
+                    while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
+                } finally {
+                    BufferPool.release(buf);
+                }
+            }
+
+            if (expected >= 0 && part.length() != offset + expected) {
+                throw new IOException(name + " truncated: " + part.length() + " of " + (offset + expected) + " bytes");
+            }
+            if (!validator.isValid(part)) {
+                part.delete();
+                throw new IOException(name + " failed validation");
+            }
+            if (!part.renameTo(file)) {
+                throw new IOException("Cannot store " + name);
+            }
+
+            Properties fresh = new Properties();
+            if (newEtag != null) fresh.setProperty(KEY_ETAG, newEtag);
+            String lastModified = response.header("Last-Modified");
+            if (lastModified != null) fresh.setProperty(KEY_LAST_MODIFIED, lastModified);
+            fresh.setProperty(KEY_VERIFIED_AT, String.valueOf(System.currentTimeMillis()));
+            writeMeta(metaFile, fresh);
+            Log.d(TAG, "Cached " + name + " (" + file.length() + " bytes)");
+            return file;
+
+        } catch (IOException e) {
+            // A copy that failed revalidation is still the last good one the server gave us
+            if (file.exists()) {
+                Log.w(TAG, "Using cached " + name + ": " + e.getMessage());
+                return file;
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isElf(File file) throws IOException {
+        byte[] magic = new byte[4];
+        try (InputStream in = new FileInputStream(file)) {
+            if (in.read(magic) != 4) return false;
+        }
+        return magic[0] == 0x7F && magic[1] == 'E' && magic[2] == 'L' && magic[3] == 'F';
+    }
+
+    private static boolean isJsonObject(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            int c;
+            while ((c = in.read()) != -1) {
+                if (!Character.isWhitespace(c) && c != 0xEF && c != 0xBB && c != 0xBF) return c == '{';
+            }
+        }
+        return false;
+    }
+
+    // A damaged timestamp just means the copy is revalidated now
+    private static long verifiedAt(Properties meta) {
+        try {
+            return Long.parseLong(meta.getProperty(KEY_VERIFIED_AT, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Properties readMeta(File file) {
+        Properties meta = new Properties();
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                meta.load(in);
+            } catch (IOException e) {
+                Log.w(TAG, "Discarding unreadable " + file.getName());
+            }
+        }
+        return meta;
+    }
+
+    private static void writeMeta(File file, Properties meta) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            meta.store(out, null);
+        }
+        if (!tmp.renameTo(file)) throw new IOException("Cannot store " + file.getName());
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursive(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,269 @@
+package com.echovr.installer;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A set of byte substitutions for APK entries, described as JSON so new game builds and mods can be
+// supported from config instead of an installer release. Parsed documents are compiled once into
+// a first-byte dispatch table and memoised by content, so repeated patches reuse the same matcher.
+//
+// {
+//   "id": "r15-media-paths", "version": 1,
+//   "entries": [{
+//     "path": "lib/arm64-v8a/libr15.so",         APK entry to patch
+//     "asset": "libr15.so",                       optional Better Graphics file that replaces it first
+//     "sections": [".rodata", ".dynstr"],         optional ELF sections to scan (default: string sections)
+//     "rules": [{
+//       "find": "...", "replace": "...",          or findHex / replaceHex for raw bytes
+//       "padding": "nul",                         "nul" may grow into trailing NULs, "strict" needs equal length
+//       "minMatches": 1, "maxMatches": 3          optional bounds; a patch outside them is rejected
+//     }]
+//   }]
+// }
+public final class PatchSet {
+
+    private static final String BUILTIN_ASSET = "patchsets/default.json";
+    private static final Map<String, PatchSet> COMPILED = new ConcurrentHashMap<>();
+
+    public static final class Rule {
+        final String label;
+        final byte[] find;
+        final byte[] replace;
+        final int minMatches;
+        final int maxMatches;
+
+        Rule(String label, byte[] find, byte[] replace, int minMatches, int maxMatches) {
+            this.label = label;
+            this.find = find;
+            this.replace = replace;
+            this.minMatches = minMatches;
+            this.maxMatches = maxMatches;
+        }
+    }
+
+    public static final class Entry {
+        public final String path;
+        public final String asset;
+        private final List<String> sections;
+        private final Rule[] rules;
+        // rule indices keyed by the first byte of their pattern, longest pattern first
+        private final int[][] byFirstByte = new int[256][];
+        // Most bytes a single match reads or writes from where it starts
+        private final int maxSpan;
+
+        Entry(String path, String asset, List<String> sections, Rule[] rules) {
+            this.path = path;
+            this.asset = asset;
+            this.sections = sections;
+            this.rules = rules;
+
+            int span = 1;
+            for (Rule rule : rules) span = Math.max(span, Math.max(rule.find.length, rule.replace.length));
+            this.maxSpan = span;
+
+            Integer[] order = new Integer[rules.length];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> rules[b].find.length - rules[a].find.length);
+            for (int idx : order) {
+                int first = rules[idx].find[0] & 0xFF;
+                int[] current = byFirstByte[first];
+                int[] next = current == null ? new int[1] : Arrays.copyOf(current, current.length + 1);
+                next[next.length - 1] = idx;
+                byFirstByte[first] = next;
+            }
+        }
+
+        public boolean hasRules() {
+            return rules.length > 0;
+        }
+
+        public int ruleCount() {
+            return rules.length;
+        }
+
+        // Whether an ELF section should be scanned for this entry.
+        public boolean scansSection(String name) {
+            return sections == null ? ElfSections.isStringBearing(name) : sections.contains(name);
+        }
+
+        // Overlap a caller streaming a file through a window must keep between windows.
+        public int maxSpan() {
+            return maxSpan;
+        }
+
+        // Applies every rule in a single pass over data, counting applied matches into counts.
+        public boolean apply(byte[] data, int[] counts) {
+            int before = 0;
+            for (int c : counts) before += c;
+            apply(data, 0, data.length, data.length, counts);
+            int after = 0;
+            for (int c : counts) after += c;
+            return after != before;
+        }
+
+        // Windowed form: matches may start in [from, limit) and read or write up to end, which must be
+        // at least limit + maxSpan() unless end is the real end of the data. Returns where the scan
+        // of the next window has to resume, relative to this one; it is never below limit.
+        public int apply(byte[] data, int from, int limit, int end, int[] counts) {
+            int i = from;
+            while (i < limit) {
+                int[] candidates = byFirstByte[data[i] & 0xFF];
+                int advance = 1;
+                if (candidates != null) {
+                    for (int r : candidates) {
+                        Rule rule = rules[r];
+                        if (!regionMatches(data, i, end, rule.find)) continue;
+
+                        int space = rule.find.length;
+                        if (rule.replace.length > space) {
+                            while (i + space < end && space < rule.replace.length && data[i + space] == 0) space++;
+                            if (space < rule.replace.length) continue;
+                        }
+                        System.arraycopy(rule.replace, 0, data, i, rule.replace.length);
+                        for (int k = rule.replace.length; k < rule.find.length; k++) data[i + k] = 0;
+
+                        counts[r]++;
+                        advance = Math.max(rule.find.length, rule.replace.length);
+                        break;
+                    }
+                }
+                i += advance;
+            }
+            return i;
+        }
+
+        public void verify(int[] counts) throws IOException {
+            for (int r = 0; r < rules.length; r++) {
+                Rule rule = rules[r];
+                if (counts[r] < rule.minMatches || counts[r] > rule.maxMatches) {
+                    throw new IOException("Patch for " + path + " matched '" + rule.label + "' " + counts[r]
+                            + " times, expected " + rule.minMatches + ".." + rule.maxMatches);
+                }
+            }
+        }
+
+        private static boolean regionMatches(byte[] data, int offset, int end, byte[] pattern) {
+            if (offset + pattern.length > end) return false;
+            for (int j = 1; j < pattern.length; j++) {
+                if (data[offset + j] != pattern[j]) return false;
+            }
+            return true;
+        }
+    }
+
+    public final String id;
+    public final int version;
+    private final Map<String, Entry> entries;
+
+    private PatchSet(String id, int version, Map<String, Entry> entries) {
+        this.id = id;
+        this.version = version;
+        this.entries = entries;
+    }
+
+    public Entry entry(String path) {
+        return entries.get(path);
+    }
+
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public static PatchSet builtin(Context context) throws IOException {
+        try (InputStream in = context.getAssets().open(BUILTIN_ASSET)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
+            return parse(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    public static PatchSet parse(String json) throws IOException {
+        PatchSet cached = COMPILED.get(json);
+        if (cached != null) return cached;
+
+        try {
+            JSONObject root = new JSONObject(json);
+            String id = root.getString("id");
+            int version = root.optInt("version", 0);
+
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            JSONArray entryArray = root.getJSONArray("entries");
+            for (int i = 0; i < entryArray.length(); i++) {
+                JSONObject e = entryArray.getJSONObject(i);
+                String path = e.getString("path");
+
+                List<String> sections = null;
+                JSONArray sectionArray = e.optJSONArray("sections");
+                if (sectionArray != null) {
+                    sections = new ArrayList<>();
+                    for (int s = 0; s < sectionArray.length(); s++) sections.add(sectionArray.getString(s));
+                }
+
+                List<Rule> rules = new ArrayList<>();
+                JSONArray ruleArray = e.optJSONArray("rules");
+                if (ruleArray != null) {
+                    for (int r = 0; r < ruleArray.length(); r++) {
+                        rules.add(parseRule(ruleArray.getJSONObject(r), path));
+                    }
+                }
+
+                String asset = e.has("asset") ? e.getString("asset") : null;
+                entries.put(path, new Entry(path, asset, sections, rules.toArray(new Rule[0])));
+            }
+
+            PatchSet set = new PatchSet(id, version, entries);
+            COMPILED.put(json, set);
+            return set;
+        } catch (JSONException e) {
+            throw new IOException("Invalid patch set: " + e.getMessage(), e);
+        }
+    }
+
+    private static Rule parseRule(JSONObject r, String path) throws JSONException, IOException {
+        byte[] find = r.has("findHex") ? hex(r.getString("findHex")) : r.getString("find").getBytes(StandardCharsets.UTF_8);
+        byte[] replace = r.has("replaceHex") ? hex(r.getString("replaceHex")) : r.getString("replace").getBytes(StandardCharsets.UTF_8);
+        String padding = r.optString("padding", "nul");
+        String label = r.has("find") ? r.getString("find") : r.getString("findHex");
+
+        if (find.length == 0) throw new IOException("Empty pattern in patch for " + path);
+        if (padding.equals("strict") && find.length != replace.length) {
+            throw new IOException("Strict rule '" + label + "' needs equal-length replacement");
+        } else if (!padding.equals("strict") && !padding.equals("nul")) {
+            throw new IOException("Unknown padding '" + padding + "' in patch for " + path);
+        }
+
+        // Strict rules are equal length, so only nul rules ever grow into the bytes after a match
+        return new Rule(label, find, replace, r.optInt("minMatches", 0), r.optInt("maxMatches", Integer.MAX_VALUE));
+    }
+
+    private static byte[] hex(String s) throws IOException {
+        String clean = s.replaceAll("\\s", "");
+        if (clean.length() % 2 != 0) throw new IOException("Odd-length hex pattern: " + s);
+        byte[] out = new byte[clean.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = Character.digit(clean.charAt(i * 2), 16);
+            int lo = Character.digit(clean.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) throw new IOException("Bad hex pattern: " + s);
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,191 @@
+package com.echovr.installer;
+
+import android.content.Context;
+import android.net.nsd.NsdManager;
+import android.net.nsd.NsdServiceInfo;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Advertises this installer's PeerServer over DNS-SD and keeps a list of the other installers on
+// the LAN. NsdManager resolves one service at a time, so found services are queued and resolved in turn.
+// Advertising follows the sharing setting; discovery only runs while a download job may use a peer.
+public class PeerDiscovery {
+
+    static final String SERVICE_TYPE = "_echovr-inst._tcp.";
+
+    private static final String TAG = "PeerDiscovery";
+
+    private final NsdManager nsd;
+    private final String selfName;
+    // service name -> "http://host:port", most recently resolved last
+    private final Map<String, String> peers = new LinkedHashMap<>();
+    private final ArrayDeque<NsdServiceInfo> pending = new ArrayDeque<>();
+    private boolean resolving;
+    private NsdManager.DiscoveryListener discovery;
+    private long discoveryStarted;
+    private NsdManager.RegistrationListener registration;
+    private String registeredName;
+
+    public PeerDiscovery(Context context) {
+        this.nsd = context.getSystemService(NsdManager.class);
+        this.selfName = "EchoVR-" + Long.toHexString(System.nanoTime() & 0xFFFFFF);
+    }
+
+    // Base URLs of resolved peers, newest first.
+    public synchronized List<String> peers() {
+        List<String> list = new ArrayList<>(peers.values());
+        Collections.reverse(list);
+        return list;
+    }
+
+    // Waits until a peer is resolved or waitMillis have passed since discovery started, so a download
+    // that begins right after startDiscovery() still sees peers that answer quickly. May be empty.
+    public synchronized List<String> awaitPeers(long waitMillis) throws InterruptedException {
+        long until = discoveryStarted + waitMillis * 1_000_000L;
+        long left;
+        while (peers.isEmpty() && discovery != null && (left = until - System.nanoTime()) > 0) {
+            wait(left / 1_000_000L + 1);
+        }
+        return peers();
+    }
+
+    public synchronized void forget(String baseUrl) {
+        peers.values().remove(baseUrl);
+    }
+
+    public synchronized void startDiscovery() {
+        if (nsd == null || discovery != null) return;
+        discovery = new NsdManager.DiscoveryListener() {
+            @Override
+            public void onStartDiscoveryFailed(String serviceType, int errorCode) {
+                Log.w(TAG, "Discovery failed: " + errorCode);
+                synchronized (PeerDiscovery.this) {
+                    discovery = null;
+                    PeerDiscovery.this.notifyAll();
+                }
+            }
+
+            @Override
+            public void onStopDiscoveryFailed(String serviceType, int errorCode) {}
+
+            @Override
+            public void onDiscoveryStarted(String serviceType) {}
+
+            @Override
+            public void onDiscoveryStopped(String serviceType) {}
+
+            @Override
+            public void onServiceFound(NsdServiceInfo service) {
+                String name = service.getServiceName();
+                if (name == null || name.equals(registeredName)) return;
+                synchronized (PeerDiscovery.this) {
+                    pending.add(service);
+                    resolveNext();
+                }
+            }
+
+            @Override
+            public void onServiceLost(NsdServiceInfo service) {
+                synchronized (PeerDiscovery.this) {
+                    peers.remove(service.getServiceName());
+                }
+            }
+        };
+        discoveryStarted = System.nanoTime();
+        nsd.discoverServices(SERVICE_TYPE, NsdManager.PROTOCOL_DNS_SD, discovery);
+    }
+
+    public synchronized void register(int port) {
+        if (nsd == null || registration != null) return;
+        NsdServiceInfo info = new NsdServiceInfo();
+        info.setServiceName(selfName);
+        info.setServiceType(SERVICE_TYPE);
+        info.setPort(port);
+        registration = new NsdManager.RegistrationListener() {
+            @Override
+            public void onServiceRegistered(NsdServiceInfo service) {
+                // The name may have been changed to resolve a conflict
+                registeredName = service.getServiceName();
+                Log.d(TAG, "Advertised as " + registeredName);
+            }
+
+            @Override
+            public void onRegistrationFailed(NsdServiceInfo service, int errorCode) {
+                Log.w(TAG, "Registration failed: " + errorCode);
+                synchronized (PeerDiscovery.this) {
+                    registration = null;
+                }
+            }
+
+            @Override
+            public void onServiceUnregistered(NsdServiceInfo service) {}
+
+            @Override
+            public void onUnregistrationFailed(NsdServiceInfo service, int errorCode) {}
+        };
+        nsd.registerService(info, NsdManager.PROTOCOL_DNS_SD, registration);
+    }
+
+    public synchronized void unregister() {
+        if (registration == null) return;
+        try {
+            nsd.unregisterService(registration);
+        } catch (IllegalArgumentException ignored) {}
+        registration = null;
+        registeredName = null;
+    }
+
+    // Leaves the advertisement alone; other installers may still be downloading from this one.
+    public synchronized void stopDiscovery() {
+        if (discovery == null) return;
+        try {
+            nsd.stopServiceDiscovery(discovery);
+        } catch (IllegalArgumentException ignored) {}
+        discovery = null;
+        pending.clear();
+        peers.clear();
+        notifyAll();
+    }
+
+    private void resolveNext() {
+        if (resolving || pending.isEmpty()) return;
+        resolving = true;
+        nsd.resolveService(pending.poll(), new NsdManager.ResolveListener() {
+            @Override
+            public void onServiceResolved(NsdServiceInfo service) {
+                synchronized (PeerDiscovery.this) {
+                    // Discovery may have been stopped while this was resolving
+                    if (discovery != null && service.getHost() != null && !service.getServiceName().equals(registeredName)) {
+                        String url = "http://" + hostLiteral(service.getHost().getHostAddress()) + ":" + service.getPort();
+                        peers.remove(service.getServiceName());
+                        peers.put(service.getServiceName(), url);
+                        Log.d(TAG, "Peer " + service.getServiceName() + " at " + url);
+                        PeerDiscovery.this.notifyAll();
+                    }
+                    resolving = false;
+                    resolveNext();
+                }
+            }
+
+            @Override
+            public void onResolveFailed(NsdServiceInfo service, int errorCode) {
+                synchronized (PeerDiscovery.this) {
+                    resolving = false;
+                    resolveNext();
+                }
+            }
+        });
+    }
+
+    static String hostLiteral(String address) {
+        int zone = address.indexOf('%');
+        if (zone >= 0) address = address.substring(0, zone);
+        return address.indexOf(':') >= 0 ? "[" + address + "]" : address;
+    }
+}
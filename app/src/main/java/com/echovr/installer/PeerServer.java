@@ -0,0 +1,224 @@
+package com.echovr.installer;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Minimal HTTP/1.1 range server for cached artifacts, so headsets in the same room can fetch from
+// each other instead of the internet mirrors. Only GET and HEAD of /artifact/<key> with a single
+// byte range are understood; file bodies go out with FileChannel.transferTo, which the kernel turns
+// into sendfile. Each connection serves one request on one of MAX_CLIENTS worker threads.
+public class PeerServer {
+
+    public interface Resolver {
+        // The complete, verified file for key, or null if this installer doesn't have it.
+        File resolve(String key);
+    }
+
+    static final String PATH_PREFIX = "/artifact/";
+
+    private static final String TAG = "PeerServer";
+    private static final int MAX_CLIENTS = 8;
+    private static final int MAX_HEADER_BYTES = 8192;
+    private static final int SOCKET_TIMEOUT_MS = 15000;
+    private static final long TRANSFER_CHUNK_BYTES = 4L * 1024 * 1024;
+
+    private final Resolver resolver;
+    private ServerSocketChannel server;
+    private ExecutorService clients;
+    private Thread acceptThread;
+
+    public PeerServer(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    // Binds to address:port (port 0 picks a free one) and returns the port actually bound.
+    public synchronized int start(InetSocketAddress address) throws IOException {
+        if (server != null) return server.socket().getLocalPort();
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(address);
+        clients = Executors.newFixedThreadPool(MAX_CLIENTS);
+
+        ServerSocketChannel listening = server;
+        ExecutorService pool = clients;
+        acceptThread = new Thread(() -> {
+            while (listening.isOpen()) {
+                try {
+                    SocketChannel client = listening.accept();
+                    pool.execute(() -> serve(client));
+                } catch (IOException e) {
+                    if (listening.isOpen()) Log.w(TAG, "Accept failed: " + e.getMessage());
+                }
+            }
+        }, "PeerServer-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        int port = server.socket().getLocalPort();
+        Log.d(TAG, "Serving on port " + port);
+        return port;
+    }
+
+    public synchronized void stop() {
+        if (server == null) return;
+        try {
+            server.close();
+        } catch (IOException ignored) {}
+        clients.shutdownNow();
+        server = null;
+        clients = null;
+        acceptThread = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    private void serve(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            channel.socket().setSoTimeout(SOCKET_TIMEOUT_MS);
+            channel.socket().setTcpNoDelay(true);
+
+            String head = readHead(channel);
+            if (head == null) return;
+            String[] lines = head.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length < 3) {
+                sendStatus(channel, 400, "Bad Request");
+                return;
+            }
+            String method = requestLine[0];
+            String path = requestLine[1];
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                sendStatus(channel, 405, "Method Not Allowed");
+                return;
+            }
+
+            File file = path.startsWith(PATH_PREFIX) ? resolver.resolve(path.substring(PATH_PREFIX.length())) : null;
+            if (file == null || !file.isFile()) {
+                sendStatus(channel, 404, "Not Found");
+                return;
+            }
+
+            String range = null;
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0 && lines[i].substring(0, colon).trim().equalsIgnoreCase("Range")) {
+                    range = lines[i].substring(colon + 1).trim();
+                }
+            }
+
+            try (FileChannel in = new FileInputStream(file).getChannel()) {
+                long length = in.size();
+                long start = 0;
+                long end = length - 1;
+                boolean partial = false;
+
+                if (range != null) {
+                    long[] parsed = parseRange(range, length);
+                    if (parsed == null) {
+                        write(channel, "HTTP/1.1 416 Range Not Satisfiable\r\nContent-Range: bytes */" + length
+                                + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+                        return;
+                    }
+                    start = parsed[0];
+                    end = parsed[1];
+                    partial = true;
+                }
+
+                long count = end - start + 1;
+                StringBuilder response = new StringBuilder();
+                response.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+                response.append("Content-Type: application/octet-stream\r\n");
+                response.append("Accept-Ranges: bytes\r\n");
+                response.append("Content-Length: ").append(count).append("\r\n");
+                if (partial) response.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(length).append("\r\n");
+                response.append("ETag: \"").append(Long.toHexString(length)).append('-').append(Long.toHexString(file.lastModified())).append("\"\r\n");
+                response.append("Connection: close\r\n\r\n");
+                write(channel, response.toString());
+
+                if (method.equals("HEAD")) return;
+                long sent = 0;
+                while (sent < count) {
+                    long n = in.transferTo(start + sent, Math.min(count - sent, TRANSFER_CHUNK_BYTES), channel);
+                    if (n <= 0) break;
+                    sent += n;
+                }
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Client dropped: " + e.getMessage());
+        }
+    }
+
+    // Single range only: "bytes=a-b", "bytes=a-" or "bytes=-n". Returns null if unsatisfiable.
+    static long[] parseRange(String header, long length) {
+        String value = header.toLowerCase(Locale.US);
+        if (!value.startsWith("bytes=") || value.indexOf(',') >= 0 || length == 0) return null;
+        String spec = value.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) return null;
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                String last = spec.substring(dash + 1);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) return null;
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Read through the socket's stream rather than the channel: only the stream honours SO_TIMEOUT,
+    // so a client that connects and goes quiet can't pin a worker thread.
+    private static String readHead(SocketChannel channel) throws IOException {
+        InputStream in = channel.socket().getInputStream();
+        byte[] buf = new byte[MAX_HEADER_BYTES];
+        int filled = 0;
+        while (filled < buf.length) {
+            int n = in.read(buf, filled, buf.length - filled);
+            if (n < 0) return null;
+            filled += n;
+            int end = indexOfBlankLine(buf, filled);
+            if (end >= 0) return new String(buf, 0, end, StandardCharsets.ISO_8859_1);
+        }
+        return null;
+    }
+
+    private static int indexOfBlankLine(byte[] data, int limit) {
+        for (int i = 0; i + 3 < limit; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static void sendStatus(SocketChannel channel, int code, String reason) throws IOException {
+        write(channel, "HTTP/1.1 " + code + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+    }
+
+    private static void write(SocketChannel channel, String text) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+        while (buf.hasRemaining()) channel.write(buf);
+    }
+}
@@ -0,0 +1,74 @@
+package com.echovr.installer;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+// The few fields of a GitHub "latest release" response the updater needs.
+public final class ReleaseInfo {
+
+    public final String name;
+    public final String notes;
+    public final String apkUrl;
+
+    private ReleaseInfo(String name, String notes, String apkUrl) {
+        this.name = name;
+        this.notes = notes;
+        this.apkUrl = apkUrl;
+    }
+
+    // Streams the response and skips everything but name, body and the first .apk asset,
+    // instead of building a DOM of the whole release (authors, reactions, every asset...).
+    public static ReleaseInfo parse(Reader in) throws IOException {
+        String name = null;
+        String notes = "";
+        String apkUrl = "";
+
+        try (JsonReader reader = new JsonReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if (key.equals("name") && reader.peek() == JsonToken.STRING) {
+                    name = reader.nextString();
+                } else if (key.equals("body") && reader.peek() == JsonToken.STRING) {
+                    notes = reader.nextString();
+                } else if (key.equals("assets") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String url = readApkAsset(reader);
+                        if (apkUrl.isEmpty() && url != null) apkUrl = url;
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed release response", e);
+        }
+
+        if (name == null) throw new IOException("Release has no name");
+        return new ReleaseInfo(name, notes, apkUrl);
+    }
+
+    private static String readApkAsset(JsonReader reader) throws IOException {
+        String assetName = null;
+        String url = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (key.equals("name") && reader.peek() == JsonToken.STRING) {
+                assetName = reader.nextString();
+            } else if (key.equals("browser_download_url") && reader.peek() == JsonToken.STRING) {
+                url = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return (assetName != null && assetName.endsWith(".apk")) ? url : null;
+    }
+}
@@ -0,0 +1,190 @@
+package com.echovr.installer;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// Immutable snapshot of config.json. A new instance is published on every change, never mutated.
+// Each artifact has a list of mirrors; MirrorHealth decides which is tried first. Older documents
+// name one primary and one backup URL instead, and those still work. APK variants may also list
+// ApkDelta files that rebuild them from APKs already on the device.
+public final class RemoteConfig {
+
+    public static final class Delta {
+        public final String url;
+        // Optional lowercase hex SHA-256 of the delta file
+        public final String sha256;
+
+        Delta(String url, String sha256) {
+            this.url = url;
+            this.sha256 = sha256;
+        }
+    }
+
+    public static final RemoteConfig DEFAULTS = new RemoteConfig(
+            mirrors("https://files.echovr.de/r15_26-06-25.apk", "https://evr.echo.taxi/r15_26-06-25.apk"),
+            mirrors("https://mia.cdn.echo.taxi/_data.zip", "https://files.echovr.de/_data.zip"),
+            mirrors("https://mia.cdn.echo.taxi/questEchoTextureMod_Alpha_v0.1_06-10-25.apk",
+                    "https://files.echovr.de/cat/questEchoTextureMod_Alpha_v0.1_06-10-25.apk"),
+            null,
+            null, null, null,
+            Collections.<Delta>emptyList(), Collections.<Delta>emptyList());
+
+    public final List<String> legacyMirrors;
+    public final List<String> dataMirrors;
+    public final List<String> enhancedMirrors;
+    // Optional; when absent the patch set bundled in assets is used.
+    public final String patchSetUrl;
+    // Optional lowercase hex SHA-256 of each artifact. A download is only accepted from a LAN peer
+    // when its hash is known; mirror downloads are checked too when it is.
+    public final String dataSha256;
+    public final String legacySha256;
+    public final String enhancedSha256;
+    // Tried in order before a full download; empty when none are published
+    public final List<Delta> legacyDeltas;
+    public final List<Delta> enhancedDeltas;
+
+    private RemoteConfig(List<String> legacyMirrors, List<String> dataMirrors, List<String> enhancedMirrors,
+                         String patchSetUrl, String dataSha256, String legacySha256, String enhancedSha256,
+                         List<Delta> legacyDeltas, List<Delta> enhancedDeltas) {
+        this.legacyMirrors = legacyMirrors;
+        this.dataMirrors = dataMirrors;
+        this.enhancedMirrors = enhancedMirrors;
+        this.patchSetUrl = patchSetUrl;
+        this.dataSha256 = dataSha256;
+        this.legacySha256 = legacySha256;
+        this.enhancedSha256 = enhancedSha256;
+        this.legacyDeltas = legacyDeltas;
+        this.enhancedDeltas = enhancedDeltas;
+    }
+
+    public static RemoteConfig parse(String json) throws IOException {
+        return parse(new StringReader(json));
+    }
+
+    // Keys missing from the document keep their built-in default. A mirror list ("dataMirrors": [...])
+    // replaces the artifact's mirrors outright; the older single keys only replace their own slot.
+    public static RemoteConfig parse(Reader in) throws IOException {
+        String legacy = DEFAULTS.legacyMirrors.get(0);
+        String data = DEFAULTS.dataMirrors.get(0);
+        String enhanced = DEFAULTS.enhancedMirrors.get(0);
+        String backupLegacy = DEFAULTS.legacyMirrors.get(1);
+        String backupData = DEFAULTS.dataMirrors.get(1);
+        String backupEnhanced = DEFAULTS.enhancedMirrors.get(1);
+        List<String> legacyList = null;
+        List<String> dataList = null;
+        List<String> enhancedList = null;
+        String patchSet = DEFAULTS.patchSetUrl;
+        String dataSha = DEFAULTS.dataSha256;
+        String legacySha = DEFAULTS.legacySha256;
+        String enhancedSha = DEFAULTS.enhancedSha256;
+        List<Delta> legacyDeltas = DEFAULTS.legacyDeltas;
+        List<Delta> enhancedDeltas = DEFAULTS.enhancedDeltas;
+
+        try (JsonReader reader = new JsonReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    switch (name) {
+                        case "legacyMirrors": legacyList = readMirrors(reader); break;
+                        case "dataMirrors": dataList = readMirrors(reader); break;
+                        case "enhancedMirrors": enhancedList = readMirrors(reader); break;
+                        case "legacyDeltas": legacyDeltas = readDeltas(reader); break;
+                        case "enhancedDeltas": enhancedDeltas = readDeltas(reader); break;
+                        default: reader.skipValue();
+                    }
+                    continue;
+                }
+                if (reader.peek() != JsonToken.STRING) {
+                    reader.skipValue();
+                    continue;
+                }
+                switch (name) {
+                    case "legacyUrl": legacy = reader.nextString(); break;
+                    case "dataUrl": data = reader.nextString(); break;
+                    case "enhancedUrl": enhanced = reader.nextString(); break;
+                    case "backupLegacyUrl": backupLegacy = reader.nextString(); break;
+                    case "backupDataUrl": backupData = reader.nextString(); break;
+                    case "backupEnhancedUrl": backupEnhanced = reader.nextString(); break;
+                    case "patchSetUrl": patchSet = reader.nextString(); break;
+                    case "dataSha256": dataSha = reader.nextString().toLowerCase(Locale.US); break;
+                    case "legacySha256": legacySha = reader.nextString().toLowerCase(Locale.US); break;
+                    case "enhancedSha256": enhancedSha = reader.nextString().toLowerCase(Locale.US); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed config.json", e);
+        }
+        return new RemoteConfig(
+                legacyList != null ? legacyList : mirrors(legacy, backupLegacy),
+                dataList != null ? dataList : mirrors(data, backupData),
+                enhancedList != null ? enhancedList : mirrors(enhanced, backupEnhanced),
+                patchSet, dataSha, legacySha, enhancedSha, legacyDeltas, enhancedDeltas);
+    }
+
+    // An empty or all-invalid list is ignored rather than leaving the artifact with nowhere to come from.
+    private static List<String> readMirrors(JsonReader reader) throws IOException {
+        List<String> urls = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.STRING) {
+                urls.add(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+        List<String> mirrors = mirrors(urls.toArray(new String[0]));
+        return mirrors.isEmpty() ? null : mirrors;
+    }
+
+    // Each delta is an object: {"url": "...", "sha256": "..."}. Entries without a url are skipped.
+    private static List<Delta> readDeltas(JsonReader reader) throws IOException {
+        List<Delta> deltas = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            String url = null;
+            String sha = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() != JsonToken.STRING) {
+                    reader.skipValue();
+                } else if (name.equals("url")) {
+                    url = reader.nextString().trim();
+                } else if (name.equals("sha256")) {
+                    sha = reader.nextString().toLowerCase(Locale.US);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (url != null && !url.isEmpty()) deltas.add(new Delta(url, sha));
+        }
+        reader.endArray();
+        return Collections.unmodifiableList(deltas);
+    }
+
+    // Blank and repeated URLs are dropped; order is kept.
+    private static List<String> mirrors(String... urls) {
+        List<String> out = new ArrayList<>();
+        for (String url : urls) {
+            if (url != null && !url.trim().isEmpty() && !out.contains(url.trim())) out.add(url.trim());
+        }
+        return Collections.unmodifiableList(out);
+    }
+}
@@ -0,0 +1,176 @@
+package com.echovr.installer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+// SHA-256 whose running state can be saved and restored. MessageDigest can't be serialised, and a
+// resumed download has to extend the digest of the bytes already on disk without reading them again.
+public final class Sha256 {
+
+    private static final int STATE_MAGIC = 0x53484131;
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private final int[] h = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+    private final int[] w = new int[64];
+    private final byte[] block = new byte[64];
+    private int blockLen;
+    private long count;
+
+    // Total bytes fed so far.
+    public long count() {
+        return count;
+    }
+
+    public void update(byte[] data, int off, int len) {
+        count += len;
+        if (blockLen > 0) {
+            int n = Math.min(len, 64 - blockLen);
+            System.arraycopy(data, off, block, blockLen, n);
+            blockLen += n;
+            off += n;
+            len -= n;
+            if (blockLen < 64) return;
+            compress(block, 0);
+            blockLen = 0;
+        }
+        while (len >= 64) {
+            compress(data, off);
+            off += 64;
+            len -= 64;
+        }
+        if (len > 0) {
+            System.arraycopy(data, off, block, 0, len);
+            blockLen = len;
+        }
+    }
+
+    // Lowercase hex digest of everything fed so far. Does not disturb the running state.
+    public String hex() {
+        Sha256 copy = new Sha256();
+        System.arraycopy(h, 0, copy.h, 0, 8);
+        System.arraycopy(block, 0, copy.block, 0, blockLen);
+        copy.blockLen = blockLen;
+        copy.count = count;
+        return copy.finish();
+    }
+
+    private String finish() {
+        long bits = count * 8;
+        byte[] pad = new byte[(blockLen < 56 ? 56 : 120) - blockLen + 8];
+        pad[0] = (byte) 0x80;
+        for (int i = 0; i < 8; i++) pad[pad.length - 1 - i] = (byte) (bits >>> (8 * i));
+        update(pad, 0, pad.length);
+
+        StringBuilder out = new StringBuilder(64);
+        for (int v : h) out.append(String.format(Locale.US, "%08x", v));
+        return out.toString();
+    }
+
+    private void compress(byte[] data, int off) {
+        for (int i = 0; i < 16; i++) {
+            int p = off + i * 4;
+            w[i] = (data[p] << 24) | ((data[p + 1] & 0xFF) << 16) | ((data[p + 2] & 0xFF) << 8) | (data[p + 3] & 0xFF);
+        }
+        for (int i = 16; i < 64; i++) {
+            int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+            int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+        for (int i = 0; i < 64; i++) {
+            int t1 = hh + (Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25))
+                    + ((e & f) ^ (~e & g)) + K[i] + w[i];
+            int t2 = (Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22))
+                    + ((a & b) ^ (a & c) ^ (b & c));
+            hh = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        h[0] += a;
+        h[1] += b;
+        h[2] += c;
+        h[3] += d;
+        h[4] += e;
+        h[5] += f;
+        h[6] += g;
+        h[7] += hh;
+    }
+
+    // Written atomically, so a crash leaves either the previous state or this one.
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            out.writeInt(STATE_MAGIC);
+            out.writeLong(count);
+            for (int v : h) out.writeInt(v);
+            out.write(block, 0, blockLen);
+        }
+        if (!tmp.renameTo(file)) throw new IOException("Cannot store " + file.getName());
+    }
+
+    // Null if the state file is missing or unreadable.
+    public static Sha256 load(File file) {
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != STATE_MAGIC) return null;
+            Sha256 sha = new Sha256();
+            sha.count = in.readLong();
+            for (int i = 0; i < 8; i++) sha.h[i] = in.readInt();
+            sha.blockLen = (int) (sha.count % 64);
+            in.readFully(sha.block, 0, sha.blockLen);
+            return sha;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Digest state covering exactly the first data.length() bytes of data: the saved state, extended
+    // over whatever was written after it was last saved, or a full pass if it doesn't fit the file.
+    public static Sha256 resume(File state, File data) throws IOException {
+        Sha256 sha = load(state);
+        long length = data.exists() ? data.length() : 0;
+        if (sha == null || sha.count > length) sha = new Sha256();
+        if (sha.count < length) {
+            try (InputStream in = new FileInputStream(data)) {
+                long skip = sha.count;
+                while (skip > 0) {
+                    long n = in.skip(skip);
+                    if (n <= 0) throw new IOException("Cannot seek in " + data.getName());
+                    skip -= n;
+                }
+                byte[] buf = BufferPool.acquire(65536);
+                try {
+                    int len;
+                    while ((len = in.read(buf)) > 0) sha.update(buf, 0, len);
+                } finally {
+                    BufferPool.release(buf);
+                }
+            }
+        }
+        return sha;
+    }
+}
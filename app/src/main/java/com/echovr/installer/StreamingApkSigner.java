@@ -0,0 +1,298 @@
+package com.echovr.installer;
+
+import com.android.apksig.ApkSignerEngine;
+import com.android.apksig.DefaultApkSignerEngine;
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Signs an aligned APK without writing a signed copy of it. The entries are kept byte for byte, the v1
+// signature files go after them and the APK signing block is computed over that layout from the
+// unsigned file. The signed APK then only exists as the stream SignedApk.writeTo produces, which can go
+// straight into an install session.
+final class StreamingApkSigner {
+
+    interface Progress {
+        void onWritten(long done, long total);
+    }
+
+    // Only the v1 digest algorithm depends on it; every headset is far past it
+    private static final int MIN_SDK_VERSION = 24;
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int EOCD_LEN = 22;
+    private static final int ZIP64_LOCATOR_LEN = 20;
+    // 1981-01-01 00:00, the same for every build
+    private static final int DOS_DATE = (1 << 9) | (1 << 5) | 1;
+    private static final int COPY_CHUNK = 1024 * 1024;
+
+    static final class SignedApk {
+        private final File unsigned;
+        private final long entriesEnd;
+        private final byte[] signatureEntries;
+        private final int padding;
+        private final byte[] signingBlock;
+        private final byte[] centralDirectory;
+        private final byte[] eocd;
+        final long length;
+
+        private SignedApk(File unsigned, long entriesEnd, byte[] signatureEntries, int padding, byte[] signingBlock,
+                          byte[] centralDirectory, byte[] eocd) {
+            this.unsigned = unsigned;
+            this.entriesEnd = entriesEnd;
+            this.signatureEntries = signatureEntries;
+            this.padding = padding;
+            this.signingBlock = signingBlock;
+            this.centralDirectory = centralDirectory;
+            this.eocd = eocd;
+            this.length = entriesEnd + signatureEntries.length + padding + signingBlock.length
+                    + centralDirectory.length + eocd.length;
+        }
+
+        // Writes the whole signed APK: the unsigned file's entries as they are, then everything computed.
+        void writeTo(OutputStream out, Progress progress) throws IOException {
+            long done = 0;
+            try (InputStream in = new FileInputStream(unsigned)) {
+                byte[] buf = BufferPool.acquire(COPY_CHUNK);
+                try {
+                    while (done < entriesEnd) {
+                        int len = in.read(buf, 0, (int) Math.min(buf.length, entriesEnd - done));
+                        if (len < 0) throw new EOFException("APK changed while it was being installed");
+                        out.write(buf, 0, len);
+                        done += len;
+                        progress.onWritten(done, length);
+                    }
+                } finally {
+                    BufferPool.release(buf);
+                }
+            }
+            out.write(signatureEntries);
+            out.write(new byte[padding]);
+            out.write(signingBlock);
+            out.write(centralDirectory);
+            out.write(eocd);
+            progress.onWritten(length, length);
+        }
+    }
+
+    private StreamingApkSigner() {}
+
+    // Reads the unsigned APK twice: once for the v1 digests of every entry's content and once for the
+    // signing block's digests of the whole file. Only the small parts that differ are kept in memory.
+    static SignedApk sign(File unsigned, String signerName, PrivateKey key, X509Certificate cert) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(unsigned, "r");
+             ZipFile zip = new ZipFile(unsigned)) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < EOCD_LEN) throw new IOException("Not a zip archive");
+            // ZipOutputStream writes no archive comment, so the end record is the last thing in the file
+            ByteBuffer end = ZipIndex.readFully(channel, size - EOCD_LEN, EOCD_LEN);
+            if (end.getInt(0) != EOCD_SIG) throw new IOException("Unexpected end of archive");
+            if (size >= EOCD_LEN + ZIP64_LOCATOR_LEN
+                    && ZipIndex.readFully(channel, size - EOCD_LEN - ZIP64_LOCATOR_LEN, 4).getInt(0) == ZIP64_LOCATOR_SIG) {
+                throw new IOException("APK is too large to sign");
+            }
+            int count = end.getShort(10) & 0xFFFF;
+            long cenSize = end.getInt(12) & 0xFFFFFFFFL;
+            long cenOffset = end.getInt(16) & 0xFFFFFFFFL;
+            byte[] cen = ZipIndex.readFully(channel, cenOffset, (int) cenSize).array();
+
+            DefaultApkSignerEngine.SignerConfig signer = new DefaultApkSignerEngine.SignerConfig.Builder(
+                    signerName, key, Collections.singletonList(cert)).build();
+            try (ApkSignerEngine engine = new DefaultApkSignerEngine.Builder(Collections.singletonList(signer), MIN_SDK_VERSION)
+                    .setV1SigningEnabled(true)
+                    .setV2SigningEnabled(true)
+                    .build()) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    // The repack leaves old signature files out, so every entry is kept as it is
+                    if (engine.inputJarEntry(entry.getName()).getOutputPolicy()
+                            != ApkSignerEngine.InputJarEntryInstructions.OutputPolicy.OUTPUT) {
+                        throw new IOException(entry.getName() + " would be replaced by signing; patch the APK again");
+                    }
+                    ApkSignerEngine.InspectJarEntryRequest request = engine.outputJarEntry(entry.getName());
+                    if (request == null) continue;
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        feed(in, request.getDataSink());
+                    }
+                    request.done();
+                }
+
+                ByteArrayOutputStream records = new ByteArrayOutputStream();
+                ByteArrayOutputStream cenRecords = new ByteArrayOutputStream();
+                cenRecords.write(cen);
+                ApkSignerEngine.OutputJarSignatureRequest jarSignature = engine.outputJarEntries();
+                if (jarSignature != null) {
+                    for (ApkSignerEngine.OutputJarSignatureRequest.JarEntry file : jarSignature.getAdditionalJarEntries()) {
+                        byte[] data = file.getData();
+                        ApkSignerEngine.InspectJarEntryRequest request = engine.outputJarEntry(file.getName());
+                        if (request != null) {
+                            request.getDataSink().consume(data, 0, data.length);
+                            request.done();
+                        }
+                        writeDeflatedEntry(records, cenRecords, cenOffset + records.size(), file.getName(), data);
+                        count++;
+                    }
+                    jarSignature.done();
+                }
+                if (count > 0xFFFF) throw new IOException("APK has too many entries to sign");
+
+                byte[] signatureEntries = records.toByteArray();
+                byte[] centralDirectory = cenRecords.toByteArray();
+                long entriesEnd = cenOffset + signatureEntries.length;
+                ByteBuffer eocd = ByteBuffer.allocate(EOCD_LEN).order(ByteOrder.LITTLE_ENDIAN);
+                eocd.putInt(0, EOCD_SIG);
+                eocd.putShort(8, (short) count);
+                eocd.putShort(10, (short) count);
+                eocd.putInt(12, centralDirectory.length);
+                eocd.putInt(16, (int) entriesEnd);
+
+                DataSource before = new ConcatenatedDataSource(DataSources.asDataSource(raf, 0, cenOffset),
+                        DataSources.asDataSource(ByteBuffer.wrap(signatureEntries)));
+                ApkSignerEngine.OutputApkSigningBlockRequest2 block = engine.outputZipSections2(before,
+                        DataSources.asDataSource(ByteBuffer.wrap(centralDirectory)),
+                        DataSources.asDataSource(ByteBuffer.wrap(eocd.array())));
+                int padding = 0;
+                byte[] signingBlock = new byte[0];
+                if (block != null) {
+                    padding = block.getPaddingSizeBeforeApkSigningBlock();
+                    signingBlock = block.getApkSigningBlock();
+                    block.done();
+                }
+                eocd.putInt(16, (int) (entriesEnd + padding + signingBlock.length));
+                engine.outputDone();
+
+                return new SignedApk(unsigned, cenOffset, signatureEntries, padding, signingBlock, centralDirectory, eocd.array());
+            }
+        }
+    }
+
+    private static void feed(InputStream in, DataSink sink) throws IOException {
+        byte[] buf = BufferPool.acquire(65536);
+        try {
+            int len;
+            while ((len = in.read(buf)) > 0) sink.consume(buf, 0, len);
+        } finally {
+            BufferPool.release(buf);
+        }
+    }
+
+    // Appends a deflated entry's local record to records and its central record to cen.
+    private static void writeDeflatedEntry(ByteArrayOutputStream records, ByteArrayOutputStream cen, long offset,
+                                           String name, byte[] data) throws IOException {
+        if (offset > 0xFFFFFFFFL) throw new IOException("APK is too large to sign");
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) compressed.write(buf, 0, deflater.deflate(buf));
+        } finally {
+            deflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer loc = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        loc.putInt(LOC_SIG).putShort((short) 20).putShort((short) 0).putShort((short) ZipEntry.DEFLATED)
+                .putShort((short) 0).putShort((short) DOS_DATE).putInt((int) crc.getValue())
+                .putInt(compressed.size()).putInt(data.length).putShort((short) nameBytes.length).putShort((short) 0);
+        records.write(loc.array());
+        records.write(nameBytes);
+        compressed.writeTo(records);
+
+        ByteBuffer central = ByteBuffer.allocate(46).order(ByteOrder.LITTLE_ENDIAN);
+        central.putInt(CEN_SIG).putShort((short) 20).putShort((short) 20).putShort((short) 0)
+                .putShort((short) ZipEntry.DEFLATED).putShort((short) 0).putShort((short) DOS_DATE)
+                .putInt((int) crc.getValue()).putInt(compressed.size()).putInt(data.length)
+                .putShort((short) nameBytes.length).putShort((short) 0).putShort((short) 0)
+                .putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) offset);
+        cen.write(central.array());
+        cen.write(nameBytes);
+    }
+
+    // The unsigned file's entries followed by the signature entries, as the signing block digests them.
+    private static final class ConcatenatedDataSource implements DataSource {
+        private final DataSource first;
+        private final DataSource second;
+
+        ConcatenatedDataSource(DataSource first, DataSource second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public long size() {
+            return first.size() + second.size();
+        }
+
+        @Override
+        public void feed(long offset, long size, DataSink sink) throws IOException {
+            long split = first.size();
+            if (offset < split) {
+                long len = Math.min(size, split - offset);
+                first.feed(offset, len, sink);
+                offset += len;
+                size -= len;
+            }
+            if (size > 0) second.feed(offset - split, size, sink);
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer(long offset, int size) throws IOException {
+            long split = first.size();
+            if (offset + size <= split) return first.getByteBuffer(offset, size);
+            if (offset >= split) return second.getByteBuffer(offset - split, size);
+            ByteBuffer buf = ByteBuffer.allocate(size);
+            copyTo(offset, size, buf);
+            buf.flip();
+            return buf;
+        }
+
+        @Override
+        public void copyTo(long offset, int size, ByteBuffer dest) throws IOException {
+            long split = first.size();
+            if (offset < split) {
+                int len = (int) Math.min(size, split - offset);
+                first.copyTo(offset, len, dest);
+                offset += len;
+                size -= len;
+            }
+            if (size > 0) second.copyTo(offset - split, size, dest);
+        }
+
+        @Override
+        public DataSource slice(long offset, long size) {
+            long split = first.size();
+            if (offset + size <= split) return first.slice(offset, size);
+            if (offset >= split) return second.slice(offset - split, size);
+            return new ConcatenatedDataSource(first.slice(offset, split - offset), second.slice(0, offset + size - split));
+        }
+    }
+}
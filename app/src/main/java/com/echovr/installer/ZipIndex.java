@@ -0,0 +1,154 @@
+package com.echovr.installer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads a zip's central directory straight from a FileChannel, keeping the raw offsets and
+// compression method that java.util.zip hides, so stored entries can be copied channel to channel.
+// Zip64 archives are read through their Zip64 end record and per-entry Zip64 extra fields, so
+// archives and entries past 4 GB work the same way.
+public final class ZipIndex {
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_LOCATOR_LEN = 20;
+    private static final int ZIP64_EOCD_LEN = 56;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int EOCD_LEN = 22;
+    private static final int LOC_LEN = 30;
+
+    public static final class Entry {
+        public final String name;
+        public final int method;
+        public final long crc;
+        public final long compressedSize;
+        public final long size;
+        public final long localHeaderOffset;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        // The local header repeats the name and carries its own extra field, which can differ in
+        // length from the central one, so the data offset is only known after reading it.
+        public long dataOffset(FileChannel channel) throws IOException {
+            ByteBuffer loc = readFully(channel, localHeaderOffset, LOC_LEN);
+            if (loc.getInt(0) != LOC_SIG) throw new IOException("Bad local header for " + name);
+            int nameLen = loc.getShort(26) & 0xFFFF;
+            int extraLen = loc.getShort(28) & 0xFFFF;
+            return localHeaderOffset + LOC_LEN + nameLen + extraLen;
+        }
+    }
+
+    private ZipIndex() {}
+
+    // Entries in central directory order.
+    public static List<Entry> read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailLen = (int) Math.min(fileSize, EOCD_LEN + 0xFFFF);
+        ByteBuffer tail = readFully(channel, fileSize - tailLen, tailLen);
+
+        int eocd = -1;
+        for (int i = tailLen - EOCD_LEN; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIG) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) throw new IOException("Not a zip archive");
+
+        long count = tail.getShort(eocd + 10) & 0xFFFF;
+        long cenSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long cenOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+        // A Zip64 locator sits right before the classic end record when the real values didn't fit
+        long locator = fileSize - tailLen + eocd - ZIP64_LOCATOR_LEN;
+        if (locator >= 0 && readFully(channel, locator, 4).getInt(0) == ZIP64_LOCATOR_SIG) {
+            long zip64Eocd = readFully(channel, locator + 8, 8).getLong(0);
+            if (zip64Eocd < 0 || zip64Eocd + ZIP64_EOCD_LEN > fileSize) throw new IOException("Bad Zip64 end record");
+            ByteBuffer end = readFully(channel, zip64Eocd, ZIP64_EOCD_LEN);
+            if (end.getInt(0) != ZIP64_EOCD_SIG) throw new IOException("Bad Zip64 end record");
+            count = end.getLong(32);
+            cenSize = end.getLong(40);
+            cenOffset = end.getLong(48);
+        }
+        if (cenOffset < 0 || cenSize < 0 || cenOffset + cenSize > fileSize || cenSize > Integer.MAX_VALUE) {
+            throw new IOException("Bad central directory");
+        }
+
+        ByteBuffer cen = readFully(channel, cenOffset, (int) cenSize);
+        List<Entry> entries = new ArrayList<>((int) Math.min(count, 65536));
+        int pos = 0;
+        while (pos + 46 <= cen.limit() && cen.getInt(pos) == CEN_SIG) {
+            int method = cen.getShort(pos + 10) & 0xFFFF;
+            long crc = cen.getInt(pos + 16) & 0xFFFFFFFFL;
+            long compressedSize = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLen = cen.getShort(pos + 28) & 0xFFFF;
+            int extraLen = cen.getShort(pos + 30) & 0xFFFF;
+            int commentLen = cen.getShort(pos + 32) & 0xFFFF;
+            long localHeaderOffset = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            // Each field that overflowed is 0xFFFFFFFF here and follows, in this order, in the Zip64 extra
+            int extra = pos + 46 + nameLen;
+            int extraEnd = Math.min(extra + extraLen, cen.limit());
+            while (extra + 4 <= extraEnd) {
+                int id = cen.getShort(extra) & 0xFFFF;
+                int len = cen.getShort(extra + 2) & 0xFFFF;
+                if (id == ZIP64_EXTRA_ID) {
+                    int field = extra + 4;
+                    int fieldEnd = Math.min(field + len, extraEnd);
+                    if (size == ZIP64_MAGIC && field + 8 <= fieldEnd) {
+                        size = cen.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC && field + 8 <= fieldEnd) {
+                        compressedSize = cen.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC && field + 8 <= fieldEnd) {
+                        localHeaderOffset = cen.getLong(field);
+                    }
+                    break;
+                }
+                extra += 4 + len;
+            }
+
+            String name = new String(cen.array(), pos + 46, nameLen, StandardCharsets.UTF_8);
+            entries.add(new Entry(name, method, crc, compressedSize, size, localHeaderOffset));
+            pos += 46 + nameLen + extraLen + commentLen;
+        }
+        return entries;
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) throw new EOFException();
+        }
+        buf.flip();
+        return buf;
+    }
+}
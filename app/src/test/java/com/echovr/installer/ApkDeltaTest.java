@@ -0,0 +1,300 @@
+package com.echovr.installer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+// Builds a base APK and deltas against it by hand, then checks ApkDelta rebuilds the target entry for
+// entry: bspatch against stored and deflated bases, negative seeks, old reads past either end of the
+// base, payloads with bytes after the deflate stream, corrupt control words and a base that isn't on
+// the device.
+public class ApkDeltaTest {
+
+    private static final String LIB = "lib/arm64-v8a/libr15.so";
+    private static final ApkPatcher.PatcherListener QUIET = message -> {};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+    private File base;
+    private byte[] lib;
+    private byte[] res;
+    private byte[] dex;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = tmp.newFolder();
+        lib = randomBytes(300_000, 1);
+        res = new byte[200_000];
+        Arrays.fill(res, (byte) 7);
+        dex = randomBytes(150_000, 3);
+        base = new File(dir, "base.apk");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(base))) {
+            ZipEntry stored = new ZipEntry(LIB);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(lib.length);
+            stored.setCompressedSize(lib.length);
+            stored.setCrc(crc(lib));
+            zos.putNextEntry(stored);
+            zos.write(lib);
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("res/a.bin"));
+            zos.write(res);
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("classes.dex"));
+            zos.write(dex);
+            zos.closeEntry();
+        }
+    }
+
+    @Test
+    public void rebuildsTargetFromBase() throws Exception {
+        byte[] newLib = lib.clone();
+        for (int i = 1000; i < 1100; i++) newLib[i] ^= 0x55;
+        newLib = Arrays.copyOf(newLib, newLib.length + 5000);
+        byte[] newDex = dex.clone();
+        newDex[5] = 1;
+        newDex[newDex.length - 1] = 9;
+        byte[] fresh = "hello new file".getBytes(StandardCharsets.US_ASCII);
+
+        Delta delta = new Delta(5);
+        // The middle block goes back 50000 bytes into the base and then skips ahead again
+        delta.bsdiff(LIB, newLib, LIB, lib, new long[][]{{200_000, 0, -50_000}, {50_000, 0, 50_000}, {50_000, 5000, 0}});
+        delta.copy("res/renamed.bin", "res/a.bin", res);
+        delta.bsdiff("classes.dex", newDex, "classes.dex", dex, new long[][]{{newDex.length, 0, 0}});
+        delta.literal("assets/new.txt", fresh, 0);
+        delta.literal("assets/dir/", new byte[0], 0);
+
+        File out = new File(dir, "out.apk");
+        ApkDelta.apply(delta.write(), Arrays.asList(new File(dir, "missing.apk"), base), out, dir, QUIET);
+
+        try (ZipFile zip = new ZipFile(out)) {
+            assertEquals(5, zip.size());
+            assertArrayEquals(newLib, read(zip, LIB));
+            assertArrayEquals(res, read(zip, "res/renamed.bin"));
+            assertArrayEquals(newDex, read(zip, "classes.dex"));
+            assertArrayEquals(fresh, read(zip, "assets/new.txt"));
+            assertEquals(ZipEntry.STORED, zip.getEntry(LIB).getMethod());
+        }
+        String[] scratch = dir.list((d, name) -> name.endsWith(".base"));
+        assertEquals(0, scratch.length);
+    }
+
+    @Test
+    public void oldReadsOutsideTheBaseCountAsZero() throws Exception {
+        // Starts 1000 bytes before the base, then runs 1000 bytes past its end
+        byte[] target = new byte[lib.length + 2000];
+        for (int i = 0; i < target.length; i++) target[i] = (byte) (i * 31);
+
+        Delta delta = new Delta(1);
+        delta.bsdiff(LIB, target, LIB, lib, new long[][]{{0, 0, -1000}, {target.length, 0, 0}});
+
+        File out = new File(dir, "out.apk");
+        ApkDelta.apply(delta.write(), Collections.singletonList(base), out, dir, QUIET);
+
+        try (ZipFile zip = new ZipFile(out)) {
+            assertArrayEquals(target, read(zip, LIB));
+        }
+    }
+
+    @Test
+    public void payloadBytesAfterTheDeflateStreamAreSkipped() throws Exception {
+        byte[] first = randomBytes(10_000, 4);
+        byte[] second = "after the padding".getBytes(StandardCharsets.US_ASCII);
+
+        // Padded past what the inflater buffers, so both the check pass and the rebuild have to skip the rest
+        Delta delta = new Delta(2);
+        delta.literal("assets/first.bin", first, 100_000);
+        delta.literal("assets/second.txt", second, 0);
+
+        File out = new File(dir, "out.apk");
+        ApkDelta.apply(delta.write(), Collections.singletonList(base), out, dir, QUIET);
+
+        try (ZipFile zip = new ZipFile(out)) {
+            assertArrayEquals(first, read(zip, "assets/first.bin"));
+            assertArrayEquals(second, read(zip, "assets/second.txt"));
+        }
+    }
+
+    @Test
+    public void missingBaseFailsBeforeWriting() throws Exception {
+        Delta delta = new Delta(2);
+        delta.literal("assets/new.txt", new byte[]{1, 2, 3}, 0);
+        delta.copy("res/renamed.bin", "res/a.bin", res);
+
+        File out = new File(dir, "out.apk");
+        try {
+            ApkDelta.apply(delta.write(), Collections.emptyList(), out, dir, QUIET);
+            fail("Expected MissingBase");
+        } catch (ApkDelta.MissingBase expected) {
+            assertTrue(expected.getMessage().contains("res/a.bin"));
+        }
+        assertFalse(out.exists());
+    }
+
+    @Test
+    public void negativeLengthsAreRejected() throws Exception {
+        byte[] target = Arrays.copyOf(dex, 1000);
+
+        // Only seeks may be negative; a diff length with the sign bit set is corrupt
+        Delta delta = new Delta(1);
+        delta.bsdiff("classes.dex", target, "classes.dex", dex, new long[][]{{-1, 0, 0}});
+
+        File out = new File(dir, "out.apk");
+        try {
+            ApkDelta.apply(delta.write(), Collections.singletonList(base), out, dir, QUIET);
+            fail("Expected a corrupt patch");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Corrupt patch"));
+        }
+        assertFalse(out.exists());
+    }
+
+    // Writes the delta format ApkDelta documents, one entry per call, in target order.
+    private final class Delta {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Delta(int entries) throws IOException {
+            out.write("EVRDELTA".getBytes(StandardCharsets.US_ASCII));
+            out.writeInt(1);
+            out.writeInt(entries);
+        }
+
+        void copy(String name, String baseName, byte[] content) throws IOException {
+            header(name, content, 0);
+            baseKey(baseName, content);
+        }
+
+        // padding is junk appended after the deflate stream but counted in the payload length
+        void literal(String name, byte[] content, int padding) throws IOException {
+            header(name, content, 1);
+            byte[] deflated = deflate(content);
+            byte[] payload = Arrays.copyOf(deflated, deflated.length + padding);
+            out.writeLong(payload.length);
+            out.write(payload);
+        }
+
+        // Each control triple is {diff length, extra length, seek}, as bsdiff emits them
+        void bsdiff(String name, byte[] content, String baseName, byte[] old, long[][] control) throws IOException {
+            header(name, content, 2);
+            baseKey(baseName, old);
+            byte[] payload = deflate(patch(old, content, control));
+            out.writeLong(payload.length);
+            out.write(payload);
+        }
+
+        File write() throws IOException {
+            out.flush();
+            File file = new File(dir, "target.delta");
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                fos.write(bytes.toByteArray());
+            }
+            return file;
+        }
+
+        private void header(String name, byte[] content, int op) throws IOException {
+            out.writeUTF(name);
+            out.writeLong(content.length);
+            out.writeInt((int) crc(content));
+            out.writeByte(op);
+        }
+
+        private void baseKey(String baseName, byte[] content) throws IOException {
+            out.writeUTF(baseName);
+            out.writeLong(content.length);
+            out.writeInt((int) crc(content));
+        }
+    }
+
+    private static byte[] patch(byte[] old, byte[] target, long[][] control) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("ENDSLEY/BSDIFF43".getBytes(StandardCharsets.US_ASCII), 0, 16);
+        offtout(out, target.length);
+        long oldPos = 0;
+        int newPos = 0;
+        for (long[] c : control) {
+            offtout(out, c[0]);
+            offtout(out, c[1]);
+            offtout(out, c[2]);
+            // Deliberately corrupt control words come without data
+            if (c[0] < 0 || c[1] < 0) continue;
+            for (int i = 0; i < c[0]; i++) {
+                long p = oldPos + i;
+                int oldByte = p >= 0 && p < old.length ? old[(int) p] : 0;
+                out.write((target[newPos + i] - oldByte) & 0xFF);
+            }
+            oldPos += c[0];
+            newPos += (int) c[0];
+            out.write(target, newPos, (int) c[1]);
+            newPos += (int) c[1];
+            oldPos += c[2];
+        }
+        return out.toByteArray();
+    }
+
+    // bsdiff's sign-and-magnitude little-endian 64-bit integer
+    private static void offtout(ByteArrayOutputStream out, long value) {
+        long magnitude = Math.abs(value);
+        for (int i = 0; i < 8; i++) {
+            int b = (int) (magnitude >>> (8 * i)) & 0xFF;
+            if (i == 7 && value < 0) b |= 0x80;
+            out.write(b);
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) out.write(buf, 0, deflater.deflate(buf));
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        assertNotNull(name, entry);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = zip.getInputStream(entry)) {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,296 @@
+package com.echovr.installer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+// Drives Downloader against FaultyHttpServer on loopback: resume, If-Range, 416, range fallbacks,
+// mirror switching and mid-body drops, each with its throughput, re-fetched bytes and recovery time
+// printed. Runs offline; Android's Log calls are stubbed by the unit test defaults.
+public class DownloaderTest {
+
+    private static final int SIZE = 8 * 1024 * 1024;
+    private static final long MB = 1024 * 1024;
+
+    private static final Downloader.Listener NEVER_CANCEL = new Downloader.Listener() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void onResponse(long waitMillis) {}
+
+        @Override
+        public void onProgress(long done, long total) {}
+    };
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FaultyHttpServer server;
+    private Downloader downloader;
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FaultyHttpServer();
+        // Short backoff so drop scenarios finish quickly; the shape of the curve is what matters
+        downloader = new Downloader(8, 20, 200);
+        target = new File(tmp.newFolder(), "game_data.zip");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void cleanDownloadHashesInline() throws Exception {
+        byte[] body = randomBytes(SIZE, 1);
+        server.serve("/data.zip", body, "\"v1\"");
+
+        File file = measure("clean", "/data.zip", null, 0);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(SIZE, server.bodyBytesSent());
+        assertEquals(sha256(body), Sha256.resume(Downloader.digestStateFile(file), file).hex());
+    }
+
+    @Test
+    public void resumeSendsIfRangeAndRefetchesNothing() throws Exception {
+        byte[] body = randomBytes(SIZE, 2);
+        server.serve("/data.zip", body, "\"v1\"");
+        long have = partial("/data.zip", 3 * MB);
+
+        File file = measure("resume", "/data.zip", null, have);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(SIZE - have, server.bodyBytesSent());
+        FaultyHttpServer.Hit hit = server.hits().get(0);
+        assertEquals("bytes=" + have + "-", hit.range);
+        assertEquals("\"v1\"", hit.ifRange);
+        assertEquals(206, hit.status);
+    }
+
+    @Test
+    public void midBodyDropsReconnectAtTheCurrentOffset() throws Exception {
+        byte[] body = randomBytes(SIZE, 3);
+        FaultyHttpServer.Resource resource = server.serve("/data.zip", body, "\"v1\"");
+        resource.dropsLeft.set(3);
+        resource.dropAfterBytes = MB + 12345;
+
+        File file = measure("3 drops", "/data.zip", null, 0);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals("no received byte is fetched twice", SIZE, server.bodyBytesSent());
+        assertEquals(4, server.hits().size());
+        assertEquals(3, server.recoveryMillis().size());
+        assertEquals(sha256(body), Sha256.resume(Downloader.digestStateFile(file), file).hex());
+    }
+
+    @Test
+    public void serverIgnoringRangeRestartsFromZero() throws Exception {
+        byte[] body = randomBytes(SIZE, 4);
+        FaultyHttpServer.Resource resource = server.serve("/data.zip", body, "\"v1\"");
+        long have = partial("/data.zip", 3 * MB);
+        resource.ignoreRange = true;
+
+        File file = measure("range ignored", "/data.zip", null, have);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        // Unavoidable: the server only offers the whole file
+        assertEquals(SIZE, server.bodyBytesSent());
+    }
+
+    @Test
+    public void rejectedRangeFallsBackToAFullRequest() throws Exception {
+        byte[] body = randomBytes(SIZE, 5);
+        FaultyHttpServer.Resource resource = server.serve("/data.zip", body, "\"v1\"");
+        long have = partial("/data.zip", 3 * MB);
+        resource.rangeStatus = 400;
+
+        File file = measure("range rejected", "/data.zip", null, have);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        List<FaultyHttpServer.Hit> hits = server.hits();
+        assertEquals(400, hits.get(0).status);
+        assertNull(hits.get(1).range);
+        assertEquals(200, hits.get(1).status);
+    }
+
+    @Test
+    public void completeFileIsAnswered416WithoutABody() throws Exception {
+        byte[] body = randomBytes(SIZE, 6);
+        server.serve("/data.zip", body, "\"v1\"");
+        assertNotNull(downloader.download(server.url("/data.zip"), target, null, NEVER_CANCEL));
+        server.reset();
+
+        File file = measure("already complete", "/data.zip", null, SIZE);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(0, server.bodyBytesSent());
+        assertEquals(416, server.hits().get(0).status);
+    }
+
+    @Test
+    public void fileReplacedOnServerIsNotSpliced() throws Exception {
+        byte[] v1 = randomBytes(SIZE, 7);
+        byte[] v2 = randomBytes(SIZE, 8);
+        FaultyHttpServer.Resource resource = server.serve("/data.zip", v1, "\"v1\"");
+        long have = partial("/data.zip", 3 * MB);
+        resource.body = v2;
+        resource.etag = "\"v2\"";
+
+        File file = measure("replaced on server", "/data.zip", null, have);
+
+        assertArrayEquals(v2, Files.readAllBytes(file.toPath()));
+        assertEquals(200, server.hits().get(0).status);
+    }
+
+    @Test
+    public void backupWithDifferentContentStartsOver() throws Exception {
+        byte[] primary = randomBytes(SIZE, 9);
+        byte[] backup = randomBytes(SIZE, 10);
+        server.serve("/primary.zip", primary, "\"a\"");
+        server.serve("/backup.zip", backup, "\"b\"");
+        long have = partial("/primary.zip", 3 * MB);
+
+        File file = measure("mismatched backup", "/backup.zip", null, have);
+
+        assertArrayEquals(backup, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void hashedBackupOfTheSameFileContinuesThePartial() throws Exception {
+        byte[] body = randomBytes(SIZE, 11);
+        server.serve("/primary.zip", body, "\"a\"");
+        server.serve("/backup.zip", body, "\"other-server\"");
+        long have = partial("/primary.zip", 3 * MB);
+
+        File file = measure("hashed backup", "/backup.zip", sha256(body), have);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(SIZE - have, server.bodyBytesSent());
+    }
+
+    @Test
+    public void throughputOnBadWifi() throws Exception {
+        byte[] body = randomBytes(SIZE, 12);
+        FaultyHttpServer.Resource resource = server.serve("/data.zip", body, "\"v1\"");
+        resource.bytesPerSecond = 16 * MB;
+        resource.latencyMs = 80;
+        resource.dropsLeft.set(2);
+        resource.dropAfterBytes = 2 * MB;
+
+        File file = measure("16 MB/s, 80 ms, 2 drops", "/data.zip", null, 0);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(SIZE, server.bodyBytesSent());
+    }
+
+    @Test
+    public void cancelLeavesFileAndDigestInStep() throws Exception {
+        byte[] body = randomBytes(SIZE, 13);
+        FaultyHttpServer.Resource resource = server.serve("/data.zip", body, "\"v1\"");
+        resource.bytesPerSecond = 4 * MB;
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Downloader.Listener listener = new Downloader.Listener() {
+            @Override
+            public boolean isCancelled() {
+                return cancelled.get();
+            }
+
+            @Override
+            public void onResponse(long waitMillis) {}
+
+            @Override
+            public void onProgress(long done, long total) {
+                if (done >= MB) cancelled.set(true);
+            }
+        };
+
+        assertNull(downloader.download(server.url("/data.zip"), target, null, listener));
+
+        long have = target.length();
+        assertTrue(have > 0 && have < SIZE);
+        byte[] prefix = new byte[(int) have];
+        System.arraycopy(body, 0, prefix, 0, prefix.length);
+        assertArrayEquals(prefix, Files.readAllBytes(target.toPath()));
+        assertEquals(have, Sha256.load(Downloader.digestStateFile(target)).count());
+        assertEquals(sha256(prefix), Sha256.resume(Downloader.digestStateFile(target), target).hex());
+    }
+
+    // Leaves a partial download of at least stopAt bytes, then clears the server's counters.
+    private long partial(String path, long stopAt) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        assertNull(downloader.download(server.url(path), target, null, new Downloader.Listener() {
+            @Override
+            public boolean isCancelled() {
+                return stop.get();
+            }
+
+            @Override
+            public void onResponse(long waitMillis) {}
+
+            @Override
+            public void onProgress(long done, long total) {
+                if (done >= stopAt) stop.set(true);
+            }
+        }));
+        // Let the abandoned response finish failing before counting again
+        Thread.sleep(200);
+        server.reset();
+        long have = target.length();
+        assertTrue(have >= stopAt && have < SIZE);
+        return have;
+    }
+
+    private File measure(String scenario, String path, String sha256, long startLength) {
+        long began = System.nanoTime();
+        File file = downloader.download(server.url(path), target, sha256, NEVER_CANCEL);
+        double seconds = (System.nanoTime() - began) / 1e9;
+        assertNotNull(scenario + " failed", file);
+
+        // New bytes on disk against bytes the server had to send; the difference was fetched twice
+        long fetched = file.length() - startLength;
+        long sent = server.bodyBytesSent();
+        long refetched = Math.max(0, sent - fetched);
+        List<Long> recovery = server.recoveryMillis();
+        long worst = 0;
+        long sum = 0;
+        for (long ms : recovery) {
+            worst = Math.max(worst, ms);
+            sum += ms;
+        }
+        System.out.println(String.format(Locale.US, "%-26s new %5.1f MB  sent %5.1f MB in %5.2f s (%6.1f MB/s)  re-fetched %8d B  recovery avg %4d ms max %4d ms (%d drops)",
+                scenario, fetched / (double) MB, sent / (double) MB, seconds, sent / (double) MB / seconds, refetched,
+                recovery.isEmpty() ? 0 : sum / recovery.size(), worst, recovery.size()));
+        return file;
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) hex.append(String.format(Locale.US, "%02x", b));
+        return hex.toString();
+    }
+}
@@ -0,0 +1,252 @@
+package com.echovr.installer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Loopback HTTP/1.1 server standing in for the download mirrors. Serves byte arrays with Range,
+// If-Range and ETag, and can be told to misbehave per resource: throttle, delay, cut the body off,
+// ignore or reject ranges. Records what it served so tests can measure re-fetched bytes and how
+// long the client took to come back after a drop.
+final class FaultyHttpServer implements Closeable {
+
+    static final class Resource {
+        volatile byte[] body;
+        volatile String etag;
+        // Body bytes per second, 0 for unlimited
+        volatile long bytesPerSecond;
+        // Delay before the response headers
+        volatile long latencyMs;
+        // Answer ranged requests with the whole body and 200
+        volatile boolean ignoreRange;
+        // Answer ranged requests with this status and no body, 0 to serve them
+        volatile int rangeStatus;
+        // The next dropsLeft responses are cut off after dropAfterBytes body bytes
+        final AtomicInteger dropsLeft = new AtomicInteger();
+        volatile long dropAfterBytes;
+
+        Resource(byte[] body, String etag) {
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+
+    static final class Hit {
+        final String path;
+        final String range;
+        final String ifRange;
+        final int status;
+        final long receivedAtNanos;
+
+        Hit(String path, String range, String ifRange, int status, long receivedAtNanos) {
+            this.path = path;
+            this.range = range;
+            this.ifRange = ifRange;
+            this.status = status;
+            this.receivedAtNanos = receivedAtNanos;
+        }
+    }
+
+    private static final int CHUNK = 16 * 1024;
+
+    private final ServerSocket server;
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+    private final List<Hit> hits = new ArrayList<>();
+    private final List<Long> dropNanos = new ArrayList<>();
+    private final AtomicLong bodyBytesSent = new AtomicLong();
+
+    FaultyHttpServer() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "FaultyHttpServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    Resource serve(String path, byte[] body, String etag) {
+        Resource resource = new Resource(body, etag);
+        resources.put(path, resource);
+        return resource;
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getLocalPort() + path;
+    }
+
+    long bodyBytesSent() {
+        return bodyBytesSent.get();
+    }
+
+    synchronized List<Hit> hits() {
+        return new ArrayList<>(hits);
+    }
+
+    // Time from each dropped response to the next request the client made, in milliseconds.
+    synchronized List<Long> recoveryMillis() {
+        List<Long> out = new ArrayList<>();
+        for (long drop : dropNanos) {
+            for (Hit hit : hits) {
+                if (hit.receivedAtNanos > drop) {
+                    out.add((hit.receivedAtNanos - drop) / 1_000_000L);
+                    break;
+                }
+            }
+        }
+        return out;
+    }
+
+    synchronized void reset() {
+        hits.clear();
+        dropNanos.clear();
+        bodyBytesSent.set(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        pool.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                pool.execute(() -> handle(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+            String requestLine = in.readLine();
+            if (requestLine == null) return;
+            long receivedAt = System.nanoTime();
+            String[] parts = requestLine.split(" ");
+            String path = parts.length > 1 ? parts[1] : "/";
+            String range = null;
+            String ifRange = null;
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon < 0) continue;
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Range")) range = value;
+                else if (name.equalsIgnoreCase("If-Range")) ifRange = value;
+            }
+
+            OutputStream out = s.getOutputStream();
+            Resource resource = resources.get(path);
+            if (resource == null) {
+                record(path, range, ifRange, 404, receivedAt);
+                writeHead(out, 404, 0, null, null);
+                return;
+            }
+            if (resource.latencyMs > 0) Thread.sleep(resource.latencyMs);
+
+            byte[] body = resource.body;
+            String etag = resource.etag;
+            long start = 0;
+            // A stale validator turns a ranged request into a full one
+            boolean ranged = range != null && !resource.ignoreRange && (ifRange == null || ifRange.equals(etag));
+            if (ranged && resource.rangeStatus > 0) {
+                record(path, range, ifRange, resource.rangeStatus, receivedAt);
+                writeHead(out, resource.rangeStatus, 0, null, etag);
+                return;
+            }
+            if (ranged) {
+                start = Long.parseLong(range.substring(range.indexOf('=') + 1, range.indexOf('-')));
+                if (start >= body.length) {
+                    record(path, range, ifRange, 416, receivedAt);
+                    writeHead(out, 416, 0, "bytes */" + body.length, etag);
+                    return;
+                }
+            }
+
+            int status = ranged ? 206 : 200;
+            record(path, range, ifRange, status, receivedAt);
+            writeHead(out, status, body.length - start,
+                    ranged ? "bytes " + start + "-" + (body.length - 1) + "/" + body.length : null, etag);
+            sendBody(out, resource, body, (int) start);
+        } catch (IOException | InterruptedException ignored) {
+            // Client went away
+        }
+    }
+
+    private void sendBody(OutputStream out, Resource resource, byte[] body, int start) throws IOException, InterruptedException {
+        boolean drop = resource.dropsLeft.getAndUpdate(n -> Math.max(0, n - 1)) > 0;
+        long began = System.nanoTime();
+        long sent = 0;
+        for (int pos = start; pos < body.length; ) {
+            int n = Math.min(CHUNK, body.length - pos);
+            if (drop && sent + n > resource.dropAfterBytes) {
+                n = (int) Math.max(0, resource.dropAfterBytes - sent);
+                out.write(body, pos, n);
+                out.flush();
+                bodyBytesSent.addAndGet(n);
+                synchronized (this) {
+                    dropNanos.add(System.nanoTime());
+                }
+                // Short of Content-Length: the client sees the body end early
+                return;
+            }
+            out.write(body, pos, n);
+            out.flush();
+            bodyBytesSent.addAndGet(n);
+            pos += n;
+            sent += n;
+
+            long rate = resource.bytesPerSecond;
+            if (rate > 0) {
+                long due = began + sent * 1_000_000_000L / rate;
+                long wait = due - System.nanoTime();
+                if (wait > 0) Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+            }
+        }
+    }
+
+    private static void writeHead(OutputStream out, int status, long length, String contentRange, String etag) throws IOException {
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        head.append("Content-Length: ").append(length).append("\r\n");
+        head.append("Accept-Ranges: bytes\r\n");
+        head.append("Connection: close\r\n");
+        if (contentRange != null) head.append("Content-Range: ").append(contentRange).append("\r\n");
+        if (etag != null) head.append("ETag: ").append(etag).append("\r\n");
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private synchronized void record(String path, String range, String ifRange, int status, long receivedAt) {
+        hits.add(new Hit(path, range, ifRange, status, receivedAt));
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 206: return "Partial Content";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 416: return "Range Not Satisfiable";
+            case 503: return "Service Unavailable";
+            default: return "Status";
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.echovr.installer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+// Runs PeerServer on loopback: range parsing, the 200/206/416 and HEAD responses byte for byte over a
+// plain socket, and several Downloaders pulling one artifact at once, each cancelled partway and
+// resumed with a range request. NSD can't run off-device, so PeerDiscovery is only covered for the
+// peer URLs it builds. Runs offline; Android's Log calls are stubbed by the unit test defaults.
+public class PeerServerTest {
+
+    private static final int SIZE = 16 * 1024 * 1024;
+    private static final long MB = 1024 * 1024;
+    private static final String KEY = "game_data";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private byte[] body;
+    private PeerServer server;
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        body = randomBytes(SIZE, 7);
+        File artifact = tmp.newFile("artifact.zip");
+        Files.write(artifact.toPath(), body);
+        server = new PeerServer(key -> key.equals(KEY) ? artifact : null);
+        port = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void parseRangeExplicitAndOpenEnded() {
+        assertArrayEquals(new long[]{0, 99}, PeerServer.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[]{500, 999}, PeerServer.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[]{999, 999}, PeerServer.parseRange("bytes=999-999", 1000));
+        // An end past the file is cut to the last byte
+        assertArrayEquals(new long[]{900, 999}, PeerServer.parseRange("bytes=900-5000", 1000));
+        assertArrayEquals(new long[]{10, 20}, PeerServer.parseRange("Bytes= 10-20", 1000));
+    }
+
+    @Test
+    public void parseRangeSuffix() {
+        assertArrayEquals(new long[]{900, 999}, PeerServer.parseRange("bytes=-100", 1000));
+        // A suffix longer than the file is the whole file
+        assertArrayEquals(new long[]{0, 999}, PeerServer.parseRange("bytes=-5000", 1000));
+        assertNull(PeerServer.parseRange("bytes=-0", 1000));
+    }
+
+    @Test
+    public void parseRangeUnsatisfiable() {
+        assertNull(PeerServer.parseRange("bytes=1000-", 1000));
+        assertNull(PeerServer.parseRange("bytes=1000-1005", 1000));
+        assertNull(PeerServer.parseRange("bytes=50-10", 1000));
+        assertNull(PeerServer.parseRange("bytes=0-", 0));
+    }
+
+    @Test
+    public void parseRangeRejectsWhatItDoesNotServe() {
+        assertNull(PeerServer.parseRange("bytes=0-9,20-29", 1000));
+        assertNull(PeerServer.parseRange("items=0-9", 1000));
+        assertNull(PeerServer.parseRange("bytes=5", 1000));
+        assertNull(PeerServer.parseRange("bytes=a-b", 1000));
+        assertNull(PeerServer.parseRange("bytes=-", 1000));
+    }
+
+    @Test
+    public void fullGetIs200WithWholeBody() throws IOException {
+        Reply reply = request("GET", PeerServer.PATH_PREFIX + KEY, null);
+
+        assertEquals("HTTP/1.1 200 OK", reply.status);
+        assertEquals(String.valueOf(SIZE), reply.header("Content-Length"));
+        assertEquals("bytes", reply.header("Accept-Ranges"));
+        assertNull(reply.header("Content-Range"));
+        assertArrayEquals(body, reply.body);
+    }
+
+    @Test
+    public void rangeGetIs206WithSlice() throws IOException {
+        Reply reply = request("GET", PeerServer.PATH_PREFIX + KEY, "bytes=1000-1999");
+
+        assertEquals("HTTP/1.1 206 Partial Content", reply.status);
+        assertEquals("1000", reply.header("Content-Length"));
+        assertEquals("bytes 1000-1999/" + SIZE, reply.header("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(body, 1000, 2000), reply.body);
+
+        Reply suffix = request("GET", PeerServer.PATH_PREFIX + KEY, "bytes=-10");
+        assertEquals("bytes " + (SIZE - 10) + "-" + (SIZE - 1) + "/" + SIZE, suffix.header("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(body, SIZE - 10, SIZE), suffix.body);
+    }
+
+    @Test
+    public void unsatisfiableRangeIs416() throws IOException {
+        Reply reply = request("GET", PeerServer.PATH_PREFIX + KEY, "bytes=" + SIZE + "-");
+
+        assertEquals("HTTP/1.1 416 Range Not Satisfiable", reply.status);
+        assertEquals("bytes */" + SIZE, reply.header("Content-Range"));
+        assertEquals(0, reply.body.length);
+
+        Reply multi = request("GET", PeerServer.PATH_PREFIX + KEY, "bytes=0-1,5-6");
+        assertEquals("HTTP/1.1 416 Range Not Satisfiable", multi.status);
+    }
+
+    @Test
+    public void headSendsHeadersOnly() throws IOException {
+        Reply full = request("HEAD", PeerServer.PATH_PREFIX + KEY, null);
+        assertEquals("HTTP/1.1 200 OK", full.status);
+        assertEquals(String.valueOf(SIZE), full.header("Content-Length"));
+        assertNotNull(full.header("ETag"));
+        assertEquals(0, full.body.length);
+
+        Reply partial = request("HEAD", PeerServer.PATH_PREFIX + KEY, "bytes=10-19");
+        assertEquals("HTTP/1.1 206 Partial Content", partial.status);
+        assertEquals("10", partial.header("Content-Length"));
+        assertEquals(0, partial.body.length);
+    }
+
+    @Test
+    public void unknownArtifactsAndMethodsAreRefused() throws IOException {
+        assertEquals("HTTP/1.1 404 Not Found", request("GET", PeerServer.PATH_PREFIX + "other", null).status);
+        assertEquals("HTTP/1.1 404 Not Found", request("GET", "/" + KEY, null).status);
+        assertEquals("HTTP/1.1 405 Method Not Allowed", request("POST", PeerServer.PATH_PREFIX + KEY, null).status);
+    }
+
+    @Test
+    public void concurrentDownloadersResumeWithRanges() throws Exception {
+        String url = "http://127.0.0.1:" + port + PeerServer.PATH_PREFIX + KEY;
+        String expected = sha256(body);
+        int clients = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<File>> results = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                File target = new File(tmp.newFolder(), "game_data.zip");
+                // Well short of the end: the pipe keeps writing a few MB after the cancel on loopback
+                long stopAt = (i + 1) * MB;
+                results.add(pool.submit(() -> {
+                    Downloader downloader = new Downloader(8, 20, 200);
+                    // Cancelled partway, then continued from what reached the disk
+                    AtomicBoolean stop = new AtomicBoolean();
+                    assertNull(downloader.download(url, target, null, new Downloader.Listener() {
+                        @Override
+                        public boolean isCancelled() {
+                            return stop.get();
+                        }
+
+                        @Override
+                        public void onResponse(long waitMillis) {}
+
+                        @Override
+                        public void onProgress(long done, long total) {
+                            if (done >= stopAt) stop.set(true);
+                        }
+                    }));
+                    assertTrue(target.length() > 0 && target.length() < SIZE);
+                    return downloader.download(url, target, expected, new Downloader.Listener() {
+                        @Override
+                        public boolean isCancelled() {
+                            return false;
+                        }
+
+                        @Override
+                        public void onResponse(long waitMillis) {}
+
+                        @Override
+                        public void onProgress(long done, long total) {}
+                    });
+                }));
+            }
+            for (Future<File> result : results) {
+                File file = result.get();
+                assertNotNull(file);
+                assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+                assertEquals(expected, Sha256.resume(Downloader.digestStateFile(file), file).hex());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void peerUrlsBracketIpv6() {
+        assertEquals("192.168.1.20", PeerDiscovery.hostLiteral("192.168.1.20"));
+        assertEquals("[fe80::1]", PeerDiscovery.hostLiteral("fe80::1%wlan0"));
+    }
+
+    private static final class Reply {
+        final String status;
+        final List<String> headers;
+        final byte[] body;
+
+        Reply(String status, List<String> headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String header(String name) {
+            for (String line : headers) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).equalsIgnoreCase(name)) return line.substring(colon + 1).trim();
+            }
+            return null;
+        }
+    }
+
+    // One request on its own connection; the server closes it after the reply, so the body is the rest.
+    private Reply request(String method, String path, String range) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(5000);
+            StringBuilder head = new StringBuilder(method).append(' ').append(path).append(" HTTP/1.1\r\nHost: peer\r\n");
+            if (range != null) head.append("Range: ").append(range).append("\r\n");
+            head.append("\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buf = new byte[64 * 1024];
+            int len;
+            while ((len = in.read(buf)) > 0) received.write(buf, 0, len);
+            byte[] raw = received.toByteArray();
+
+            int split = -1;
+            for (int i = 0; i + 3 < raw.length; i++) {
+                if (raw[i] == '\r' && raw[i + 1] == '\n' && raw[i + 2] == '\r' && raw[i + 3] == '\n') {
+                    split = i;
+                    break;
+                }
+            }
+            assertTrue("No header terminator", split >= 0);
+            List<String> lines = new ArrayList<>(Arrays.asList(new String(raw, 0, split, StandardCharsets.ISO_8859_1).split("\r\n")));
+            String status = lines.remove(0);
+            return new Reply(status, lines, Arrays.copyOfRange(raw, split + 4, raw.length));
+        }
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) hex.append(String.format(Locale.US, "%02x", b));
+        return hex.toString();
+    }
+}